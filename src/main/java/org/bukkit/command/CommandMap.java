@@ -2,6 +2,8 @@ package org.bukkit.command;
 
 import java.util.List;
 
+import org.bukkit.plugin.Plugin;
+
 public interface CommandMap {
 
     /**
@@ -19,6 +21,13 @@ public interface CommandMap {
      */
     public boolean register(String label, String fallbackPrefix, Command command);
 
+    /**
+     * Unregisters all the commands belonging to a plugin
+     *
+     * @param plugin Plugin to unregister the commands of
+     */
+    public void unregisterAll(Plugin plugin);
+
     /**
      * Looks for the requested command and executes it if found.
      *
@@ -28,6 +37,15 @@ public interface CommandMap {
      */
     public boolean dispatch(CommandSender sender, String cmdLine);
 
+    /**
+     * Gets the labels of the commands starting with the given text, for tab-completion
+     *
+     * @param sender Sender completing the command
+     * @param partial Start of the label, without the '/'-prefix
+     * @return Matching labels in alphabetical order
+     */
+    public List<String> complete(CommandSender sender, String partial);
+
     /**
      * Clears all registered commands.
      */
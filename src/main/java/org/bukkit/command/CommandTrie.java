@@ -0,0 +1,193 @@
+package org.bukkit.command;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A prefix tree of command labels, ignoring case
+ *
+ * Reads never lock and may run on any thread. Writes must be synchronized by
+ * the caller; each node's children are replaced with a new array, so a reader
+ * always sees a complete, sorted set of children.
+ */
+final class CommandTrie {
+    private volatile Node root = new Node('\0');
+
+    /**
+     * Gets the command registered with a label
+     *
+     * @param label Label of the command, in any case
+     * @return Command, or null if none is registered with the label
+     */
+    public Command get(String label) {
+        return get(label, 0, label.length());
+    }
+
+    /**
+     * Gets the command registered with the label held by part of a string
+     *
+     * @param text String containing the label
+     * @param start Index of the first character of the label
+     * @param end Index after the last character of the label
+     * @return Command, or null if none is registered with the label
+     */
+    public Command get(String text, int start, int end) {
+        Node node = find(text, start, end);
+
+        return (node == null) ? null : node.command;
+    }
+
+    /**
+     * Registers a command with a label, replacing any command registered with it
+     *
+     * @param label Label of the command
+     * @param command Command to register
+     */
+    public void put(String label, Command command) {
+        Node node = root;
+
+        for (int i = 0; i < label.length(); i++) {
+            char c = Character.toLowerCase(label.charAt(i));
+            Node child = node.getChild(c);
+
+            if (child == null) {
+                child = new Node(c);
+                node.addChild(child);
+            }
+            node = child;
+        }
+
+        node.label = label.toLowerCase();
+        node.command = command;
+    }
+
+    /**
+     * Removes the command registered with a label
+     *
+     * @param label Label of the command
+     */
+    public void remove(String label) {
+        Node node = find(label, 0, label.length());
+
+        if (node != null) {
+            node.command = null;
+        }
+    }
+
+    /**
+     * Removes every command
+     */
+    public void clear() {
+        root = new Node('\0');
+    }
+
+    /**
+     * Gets every label starting with a prefix, in alphabetical order
+     *
+     * @param prefix Prefix of the labels, in any case
+     * @return Labels with their commands
+     */
+    public List<Entry> getEntries(String prefix) {
+        List<Entry> result = new ArrayList<Entry>();
+        Node node = find(prefix, 0, prefix.length());
+
+        if (node != null) {
+            collect(node, result);
+        }
+
+        return result;
+    }
+
+    private Node find(String text, int start, int end) {
+        Node node = root;
+
+        for (int i = start; i < end && node != null; i++) {
+            node = node.getChild(Character.toLowerCase(text.charAt(i)));
+        }
+
+        return node;
+    }
+
+    private void collect(Node node, List<Entry> result) {
+        Command command = node.command;
+
+        if (command != null) {
+            result.add(new Entry(node.label, command));
+        }
+
+        for (Node child : node.children) {
+            collect(child, result);
+        }
+    }
+
+    /**
+     * A label and the command registered with it
+     */
+    public static final class Entry {
+        private final String label;
+        private final Command command;
+
+        public Entry(String label, Command command) {
+            this.label = label;
+            this.command = command;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        public Command getCommand() {
+            return command;
+        }
+    }
+
+    private static final class Node {
+        private static final Node[] NO_CHILDREN = new Node[0];
+
+        private final char key;
+        private volatile Node[] children = NO_CHILDREN;
+        private volatile String label = null;
+        private volatile Command command = null;
+
+        public Node(char key) {
+            this.key = key;
+        }
+
+        public Node getChild(char c) {
+            Node[] current = children;
+            int low = 0;
+            int high = current.length - 1;
+
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                char middleKey = current[middle].key;
+
+                if (middleKey < c) {
+                    low = middle + 1;
+                } else if (middleKey > c) {
+                    high = middle - 1;
+                } else {
+                    return current[middle];
+                }
+            }
+
+            return null;
+        }
+
+        public void addChild(Node child) {
+            Node[] current = children;
+            Node[] updated = new Node[current.length + 1];
+            int index = 0;
+
+            while (index < current.length && current[index].key < child.key) {
+                index++;
+            }
+
+            System.arraycopy(current, 0, updated, 0, index);
+            updated[index] = child;
+            System.arraycopy(current, index, updated, index + 1, current.length - index);
+
+            children = updated;
+        }
+    }
+}
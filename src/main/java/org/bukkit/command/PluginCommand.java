@@ -8,6 +8,7 @@ import org.bukkit.plugin.Plugin;
 public final class PluginCommand extends Command {
     private final Plugin owningPlugin;
     private CommandExecutor executor;
+    private boolean async = false;
 
     protected PluginCommand(String name, Plugin owner) {
         super(name);
@@ -25,25 +26,74 @@ public final class PluginCommand extends Command {
      * @return true if the command was successful, otherwise false
      */
     public boolean execute(CommandSender sender, String commandLabel, String[] args) {
-        boolean success = false;
-
         if (!owningPlugin.isEnabled()) {
             return false;
         }
 
+        boolean success = run(sender, commandLabel, args);
+
+        if (!success) {
+            sendUsage(sender, commandLabel);
+        }
+
+        return success;
+    }
+
+    /**
+     * Runs the executor of this command without sending the usage message.
+     * The caller must check that the owning plugin is enabled first, no usage
+     * message is sent for the commands of a disabled plugin.
+     *
+     * @param sender Source object which is executing this command
+     * @param commandLabel The alias of the command used
+     * @param args All arguments passed to the command, split via ' '
+     * @return true if the command was successful, otherwise false
+     */
+    boolean run(CommandSender sender, String commandLabel, String[] args) {
         try {
-            success = executor.onCommand(sender, this, commandLabel, args);
+            return executor.onCommand(sender, this, commandLabel, args);
         } catch (Throwable ex) {
             throw new CommandException("Unhandled exception executing command '" + commandLabel + "' in plugin " + owningPlugin.getDescription().getFullName(), ex);
         }
+    }
 
-        if (!success && usageMessage.length() > 0) {
+    /**
+     * Sends the usage message of this command, if it has one
+     *
+     * @param sender Sender to send the message to
+     * @param commandLabel The alias of the command used
+     */
+    void sendUsage(CommandSender sender, String commandLabel) {
+        if (usageMessage.length() > 0) {
             for (String line: usageMessage.replace("<command>", commandLabel).split("\n")) {
                 sender.sendMessage(line);
             }
         }
+    }
 
-        return success;
+    /**
+     * Checks if this command is executed asynchronously
+     *
+     * Asynchronous commands run on a worker thread instead of the thread which
+     * dispatched them, so their executor must not use the server API except
+     * through the scheduler. This includes the sender: the executor must not
+     * send it messages or touch its world directly, but schedule a sync task
+     * to do so. The usage message and errors are sent to the sender from the
+     * main thread once the command completes.
+     *
+     * @return true if the command is asynchronous
+     */
+    public boolean isAsync() {
+        return async;
+    }
+
+    /**
+     * Sets whether this command is executed asynchronously
+     *
+     * @param async true to run the command on a worker thread
+     */
+    public void setAsync(boolean async) {
+        this.async = async;
     }
 
     /**
@@ -22,10 +22,11 @@ public class PluginCommandYamlParser {
 
         if (map != null) {
             for (Entry<String, Map<String, Object>> entry : map.entrySet()) {
-                Command newCmd = new PluginCommand(entry.getKey(), plugin);
+                PluginCommand newCmd = new PluginCommand(entry.getKey(), plugin);
                 Object description = entry.getValue().get("description");
                 Object usage = entry.getValue().get("usage");
                 Object aliases = entry.getValue().get("aliases");
+                Object async = entry.getValue().get("async");
 
                 if (description != null) {
                     newCmd.setDescription(description.toString());
@@ -35,6 +36,10 @@ public class PluginCommandYamlParser {
                     newCmd.setUsage(usage.toString());
                 }
 
+                if (async != null) {
+                    newCmd.setAsync(Boolean.valueOf(async.toString()));
+                }
+
                 if (aliases != null) {
                     List<String> aliasList = new ArrayList<String>();
 
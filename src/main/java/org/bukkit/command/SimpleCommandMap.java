@@ -1,22 +1,33 @@
 package org.bukkit.command;
 
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
+import java.util.logging.Level;
 
 import org.bukkit.ChatColor;
 import org.bukkit.Server;
 
+import org.bukkit.event.Event;
 import org.bukkit.plugin.Plugin;
 import org.bukkit.plugin.PluginDescriptionFile;
-import static org.bukkit.util.Java15Compat.Arrays_copyOfRange;
+import org.bukkit.plugin.PluginManager;
+import org.bukkit.plugin.RegisteredListener;
+import org.bukkit.scheduler.BukkitScheduler;
 
 public final class SimpleCommandMap implements CommandMap {
-    private final Map<String, Command> knownCommands = new HashMap<String, Command>();
+    private static final String[] NO_ARGS = new String[0];
+    private final CommandTrie knownCommands = new CommandTrie();
     private final Set<String> aliases = new HashSet<String>();
     private final Server server;
 
@@ -29,6 +40,7 @@ public final class SimpleCommandMap implements CommandMap {
         register("bukkit", new VersionCommand("version", server));
         register("bukkit", new ReloadCommand("reload", server));
         register("bukkit", new PluginsCommand("plugins", server));
+        register("bukkit", new TimingsCommand("timings", server));
     }
 
     /**
@@ -36,7 +48,7 @@ public final class SimpleCommandMap implements CommandMap {
      * @param plugin
      * @return
      */
-    public void registerAll(String fallbackPrefix, List<Command> commands) {
+    public synchronized void registerAll(String fallbackPrefix, List<Command> commands) {
         if (commands != null) {
             for (Command c : commands) {
                 register(fallbackPrefix, c);
@@ -44,7 +56,7 @@ public final class SimpleCommandMap implements CommandMap {
         }
     }
 
-    private void register(String fallbackPrefix, Command command) {
+    private synchronized void register(String fallbackPrefix, Command command) {
         register(command.getName(), fallbackPrefix, command);
         aliases.addAll(command.getAliases());
         aliases.remove(command.getName());
@@ -57,14 +69,14 @@ public final class SimpleCommandMap implements CommandMap {
     /**
      * {@inheritDoc}
      */
-    public boolean register(String name, String fallbackPrefix, Command command) {
+    public synchronized boolean register(String name, String fallbackPrefix, Command command) {
         boolean nameInUse = nameInUse(name);
 
         if (nameInUse) {
             name = fallbackPrefix + ":" + name;
         }
 
-        knownCommands.put(name.toLowerCase(), command);
+        knownCommands.put(name, command);
         return !nameInUse;
     }
 
@@ -79,20 +91,24 @@ public final class SimpleCommandMap implements CommandMap {
      * {@inheritDoc}
      */
     public boolean dispatch(CommandSender sender, String commandLine) {
-        String[] args = commandLine.split(" ");
+        int labelEnd = commandLine.indexOf(' ');
 
-        if (args.length == 0) {
-            return false;
+        if (labelEnd == -1) {
+            labelEnd = commandLine.length();
         }
 
-        String sentCommandLabel = args[0].toLowerCase();
-
-        args = Arrays_copyOfRange(args, 1, args.length);
-
-        Command target = getCommand(sentCommandLabel);
+        // The label is looked up in place, so unknown commands don't allocate anything
+        Command target = knownCommands.get(commandLine, 0, labelEnd);
         boolean isRegisteredCommand = (target != null);
 
         if (isRegisteredCommand) {
+            String sentCommandLabel = commandLine.substring(0, labelEnd).toLowerCase();
+            String[] args = splitArguments(commandLine, labelEnd);
+
+            if (target instanceof PluginCommand && ((PluginCommand) target).isAsync() && dispatchAsync(sender, (PluginCommand) target, sentCommandLabel, args)) {
+                return true;
+            }
+
             try {
                 target.execute(sender, sentCommandLabel, args);
             } catch (CommandException ex) {
@@ -104,15 +120,140 @@ public final class SimpleCommandMap implements CommandMap {
         return isRegisteredCommand;
     }
 
+    /**
+     * Runs an asynchronous command on a scheduler worker, then sends its usage
+     * message or error to the sender from the main thread
+     *
+     * @param sender Source of the command
+     * @param command Command to run
+     * @param commandLabel Label the command was sent with
+     * @param args Arguments of the command
+     * @return false if the command couldn't be scheduled
+     */
+    private boolean dispatchAsync(final CommandSender sender, final PluginCommand command, final String commandLabel, final String[] args) {
+        final Plugin plugin = command.getPlugin();
+        final BukkitScheduler scheduler = server.getScheduler();
+
+        int taskId = scheduler.scheduleAsyncDelayedTask(plugin, new Runnable() {
+            public void run() {
+                boolean success;
+                CommandException error = null;
+
+                // Disabled plugins don't get to send their usage message
+                if (!plugin.isEnabled()) {
+                    return;
+                }
+
+                try {
+                    success = command.run(sender, commandLabel, args);
+                } catch (CommandException ex) {
+                    success = false;
+                    error = ex;
+                }
+
+                final boolean result = success;
+                final CommandException exception = error;
+
+                scheduler.scheduleSyncDelayedTask(plugin, new Runnable() {
+                    public void run() {
+                        if (exception != null) {
+                            server.getLogger().log(Level.SEVERE, exception.getMessage(), exception.getCause());
+                            sender.sendMessage(ChatColor.RED + "An internal error occurred while attempting to perform this command");
+                        } else if (!result) {
+                            command.sendUsage(sender, commandLabel);
+                        }
+                    }
+                });
+            }
+        });
+
+        return taskId != -1;
+    }
+
+    /**
+     * Splits the arguments following a command label on every space, giving
+     * the same arguments as commandLine.split(" ") without the label
+     *
+     * @param commandLine Command line to split
+     * @param labelEnd Index of the space after the label
+     * @return Arguments of the command
+     */
+    private static String[] splitArguments(String commandLine, int labelEnd) {
+        // Trailing empty arguments are dropped, as split does
+        int end = commandLine.length();
+        while (end > labelEnd && commandLine.charAt(end - 1) == ' ') {
+            end--;
+        }
+
+        if (end <= labelEnd) {
+            return NO_ARGS;
+        }
+
+        int count = 1;
+        for (int i = labelEnd + 1; i < end; i++) {
+            if (commandLine.charAt(i) == ' ') {
+                count++;
+            }
+        }
+
+        String[] args = new String[count];
+        int start = labelEnd + 1;
+        for (int i = 0; i < count - 1; i++) {
+            int space = commandLine.indexOf(' ', start);
+
+            args[i] = commandLine.substring(start, space);
+            start = space + 1;
+        }
+        args[count - 1] = commandLine.substring(start, end);
+
+        return args;
+    }
+
+    public List<String> complete(CommandSender sender, String partial) {
+        List<String> labels = new ArrayList<String>();
+
+        // Only command labels are completed, not their arguments
+        if (partial.indexOf(' ') != -1) {
+            return labels;
+        }
+
+        for (CommandTrie.Entry entry : knownCommands.getEntries(partial)) {
+            Command command = entry.getCommand();
+
+            // Commands of disabled plugins can't be run
+            if (command instanceof PluginCommand && !((PluginCommand) command).getPlugin().isEnabled()) {
+                continue;
+            }
+
+            labels.add(entry.getLabel());
+        }
+
+        return labels;
+    }
+
     public void clearCommands() {
         synchronized (this) {
             knownCommands.clear();
+            aliases.clear();
             setDefaultCommands(server);
         }
     }
 
     public Command getCommand(String name) {
-        return knownCommands.get(name.toLowerCase());
+        return knownCommands.get(name);
+    }
+
+    public void unregisterAll(Plugin plugin) {
+        synchronized (this) {
+            for (CommandTrie.Entry entry : knownCommands.getEntries("")) {
+                Command command = entry.getCommand();
+
+                if (command instanceof PluginCommand && ((PluginCommand) command).getPlugin() == plugin) {
+                    knownCommands.remove(entry.getLabel());
+                    aliases.removeAll(command.getAliases());
+                }
+            }
+        }
     }
 
     private static class VersionCommand extends Command {
@@ -202,21 +343,46 @@ public final class SimpleCommandMap implements CommandMap {
         public ReloadCommand(String name, Server server) {
             super(name);
             this.server = server;
-            this.description = "Reloads the server configuration and plugins";
-            this.usageMessage = "/reload";
+            this.description = "Reloads the server configuration and plugins, or a single plugin";
+            this.usageMessage = "/reload [plugin]";
             this.setAliases(Arrays.asList("rl"));
         }
 
         @Override
         public boolean execute(CommandSender sender, String currentAlias, String[] args) {
-            if (sender.isOp()) {
+            if (!sender.isOp()) {
+                sender.sendMessage(ChatColor.RED + "You do not have sufficient access to reload this server.");
+            } else if (args.length == 0) {
                 server.reload();
                 sender.sendMessage(ChatColor.GREEN + "Reload complete.");
             } else {
-                sender.sendMessage(ChatColor.RED + "You do not have sufficient access to reload this server.");
+                reloadPlugin(sender, args[0]);
             }
             return true;
         }
+
+        private void reloadPlugin(CommandSender sender, String pluginName) {
+            PluginManager pluginManager = server.getPluginManager();
+            Plugin plugin = pluginManager.getPlugin(pluginName);
+
+            if (plugin == null) {
+                sender.sendMessage(ChatColor.RED + "No plugin named " + pluginName + " is loaded.");
+                return;
+            }
+
+            try {
+                plugin = pluginManager.reloadPlugin(plugin);
+            } catch (Exception ex) {
+                server.getLogger().log(Level.SEVERE, "Could not reload " + pluginName, ex);
+                plugin = null;
+            }
+
+            if (plugin != null) {
+                sender.sendMessage(ChatColor.GREEN + "Reloaded " + plugin.getDescription().getFullName() + ".");
+            } else {
+                sender.sendMessage(ChatColor.RED + "Could not reload " + pluginName + ", see the console for details.");
+            }
+        }
     }
 
     private static class PluginsCommand extends Command {
@@ -254,4 +420,173 @@ public final class SimpleCommandMap implements CommandMap {
             return pluginList.toString();
         }
     }
+
+    private static class TimingsCommand extends Command {
+
+        private final Server server;
+
+        public TimingsCommand(String name, Server server) {
+            super(name);
+            this.server = server;
+            this.description = "Records and reports the time spent by plugins handling events";
+            this.usageMessage = "/timings <on|off|reset|report [count]|dump>";
+        }
+
+        @Override
+        public boolean execute(CommandSender sender, String currentAlias, String[] args) {
+            if (!sender.isOp()) {
+                sender.sendMessage(ChatColor.RED + "You do not have sufficient access to view timings.");
+                return true;
+            }
+
+            if (args.length == 0) {
+                sender.sendMessage(ChatColor.RED + "Usage: " + usageMessage);
+                return true;
+            }
+
+            PluginManager pluginManager = server.getPluginManager();
+            String action = args[0].toLowerCase();
+
+            if (action.equals("on")) {
+                pluginManager.resetTimings();
+                pluginManager.setUseTimings(true);
+                sender.sendMessage(ChatColor.GREEN + "Timings enabled and reset.");
+            } else if (action.equals("off")) {
+                pluginManager.setUseTimings(false);
+                sender.sendMessage(ChatColor.GREEN + "Timings disabled.");
+            } else if (action.equals("reset")) {
+                pluginManager.resetTimings();
+                sender.sendMessage(ChatColor.GREEN + "Timings reset.");
+            } else if (action.equals("report")) {
+                int count = 10;
+
+                if (args.length > 1) {
+                    try {
+                        count = Integer.parseInt(args[1]);
+                    } catch (NumberFormatException ex) {
+                        sender.sendMessage(ChatColor.RED + "'" + args[1] + "' is not a number.");
+                        return true;
+                    }
+
+                    if (count < 1) {
+                        sender.sendMessage(ChatColor.RED + "The number of listeners to report must be at least 1.");
+                        return true;
+                    }
+                }
+
+                report(sender, count);
+            } else if (action.equals("dump")) {
+                dump(sender);
+            } else {
+                sender.sendMessage(ChatColor.RED + "Usage: " + usageMessage);
+            }
+
+            return true;
+        }
+
+        private void report(CommandSender sender, int count) {
+            List<ListenerTiming> timings = getTimings();
+
+            if (!server.getPluginManager().useTimings()) {
+                sender.sendMessage(ChatColor.RED + "Timings are not enabled, use /timings on");
+            }
+
+            if (timings.isEmpty()) {
+                sender.sendMessage("No listener timings have been recorded.");
+                return;
+            }
+
+            sender.sendMessage("Top " + Math.min(count, timings.size()) + " listeners by total time:");
+            for (int i = 0; i < count && i < timings.size(); i++) {
+                ListenerTiming timing = timings.get(i);
+                RegisteredListener registration = timing.registration;
+
+                sender.sendMessage(String.format("%s%s%s %s (%s) calls: %d total: %.2fms avg: %.3fms max: %.2fms",
+                    ChatColor.GREEN,
+                    registration.getPlugin().getDescription().getName(),
+                    ChatColor.WHITE,
+                    timing.type,
+                    registration.getListener().getClass().getSimpleName(),
+                    registration.getCallCount(),
+                    registration.getTotalTime() / 1000000.0D,
+                    registration.getTotalTime() / 1000000.0D / registration.getCallCount(),
+                    registration.getMaxTime() / 1000000.0D
+                ));
+            }
+        }
+
+        private void dump(CommandSender sender) {
+            File directory = new File("timings");
+            File file = new File(directory, "timings-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".csv");
+            PrintWriter writer = null;
+
+            directory.mkdirs();
+
+            try {
+                writer = new PrintWriter(new FileWriter(file));
+                writer.println("plugin,event,listener,priority,calls,total_ns,max_ns");
+
+                for (ListenerTiming timing : getTimings()) {
+                    RegisteredListener registration = timing.registration;
+
+                    writer.println(registration.getPlugin().getDescription().getName() + ","
+                        + timing.type + ","
+                        + registration.getListener().getClass().getName() + ","
+                        + registration.getPriority() + ","
+                        + registration.getCallCount() + ","
+                        + registration.getTotalTime() + ","
+                        + registration.getMaxTime());
+                }
+
+                if (writer.checkError()) {
+                    throw new IOException("Error writing " + file.getPath());
+                }
+
+                sender.sendMessage(ChatColor.GREEN + "Timings written to " + file.getPath());
+            } catch (IOException ex) {
+                server.getLogger().log(Level.SEVERE, "Could not write timings to " + file.getPath(), ex);
+                sender.sendMessage(ChatColor.RED + "Could not write timings to " + file.getPath());
+            } finally {
+                if (writer != null) {
+                    writer.close();
+                }
+            }
+        }
+
+        /**
+         * Gets the timings of all listeners which have been called, highest total time first
+         */
+        private List<ListenerTiming> getTimings() {
+            List<ListenerTiming> timings = new ArrayList<ListenerTiming>();
+
+            for (Event.Type type : Event.Type.values()) {
+                for (RegisteredListener registration : server.getPluginManager().getRegisteredListeners(type)) {
+                    if (registration.getCallCount() > 0) {
+                        timings.add(new ListenerTiming(type, registration));
+                    }
+                }
+            }
+
+            Collections.sort(timings, new Comparator<ListenerTiming>() {
+                public int compare(ListenerTiming i, ListenerTiming j) {
+                    long a = i.registration.getTotalTime();
+                    long b = j.registration.getTotalTime();
+
+                    return (a < b) ? 1 : ((a == b) ? 0 : -1);
+                }
+            });
+
+            return timings;
+        }
+
+        private static class ListenerTiming {
+            private final Event.Type type;
+            private final RegisteredListener registration;
+
+            public ListenerTiming(Event.Type type, RegisteredListener registration) {
+                this.type = type;
+                this.registration = registration;
+            }
+        }
+    }
 }
@@ -8,6 +8,8 @@ import java.io.Serializable;
 public abstract class Event implements Serializable {
     private final Type type;
     private final String name;
+    private volatile boolean recycled = false;
+    private volatile int generation = 0;
 
     protected Event(final Type type) {
         exAssert(type != null, "type is null");
@@ -30,6 +32,73 @@ public abstract class Event implements Serializable {
         return type;
     }
 
+    /**
+     * Checks if this event has been returned to its {@link EventPool}
+     *
+     * A recycled event must no longer be used, as it may be reused for a
+     * later event of the same type
+     *
+     * @return true if this event has been recycled
+     */
+    public final boolean isRecycled() {
+        return recycled;
+    }
+
+    final void setRecycled(boolean recycled) {
+        this.recycled = recycled;
+    }
+
+    /**
+     * Gets the number of times this event has been reused by its {@link EventPool}
+     *
+     * The generation changes each time the event is acquired again, so code
+     * which keeps a pooled event past its listener can keep the generation
+     * with it and call {@link #checkGeneration(int)} before using it
+     *
+     * @return Generation of this event
+     */
+    public final int getGeneration() {
+        return generation;
+    }
+
+    final void nextGeneration() {
+        generation++;
+    }
+
+    /**
+     * Throws an exception if this event has been recycled, or reused since it
+     * had the given generation
+     *
+     * @param generation Generation the event had when it was kept
+     * @throws IllegalStateException Thrown when this event has been recycled or reused
+     */
+    public final void checkGeneration(int generation) {
+        checkRecycled();
+
+        if (this.generation != generation) {
+            throw new IllegalStateException("Event " + getEventName() + " was used after it was reused for another event, listeners must not keep a reference to it");
+        }
+    }
+
+    /**
+     * Throws an exception if this event has been recycled. Pooled events call
+     * this from their accessors to detect listeners which keep a reference to
+     * the event after it was called
+     *
+     * @throws IllegalStateException Thrown when this event has been recycled
+     */
+    protected final void checkRecycled() {
+        if (recycled) {
+            throw new IllegalStateException("Event " + getEventName() + " was used after it was recycled, listeners must not keep a reference to it");
+        }
+    }
+
+    /**
+     * Clears the state of this event once it has been recycled, so that any
+     * later use fails. Only called when {@link EventPool} debugging is enabled
+     */
+    protected void poison() {}
+
     private void exAssert(boolean b, String s) {
         if (!b) {
             throw new IllegalArgumentException(s);
@@ -428,6 +497,18 @@ public abstract class Event implements Serializable {
          * @see org.bukkit.event.server.PluginEvent
          */
         SERVER_COMMAND (Category.SERVER),
+        /**
+         * Called when a service provider is registered
+         *
+         * @see org.bukkit.event.server.ServiceRegisterEvent
+         */
+        SERVICE_REGISTER (Category.SERVER),
+        /**
+         * Called when a service provider is unregistered
+         *
+         * @see org.bukkit.event.server.ServiceUnregisterEvent
+         */
+        SERVICE_UNREGISTER (Category.SERVER),
 
         /**
          * WORLD EVENTS
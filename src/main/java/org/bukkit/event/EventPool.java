@@ -0,0 +1,140 @@
+package org.bukkit.event;
+
+import org.bukkit.event.block.BlockFromToEvent;
+import org.bukkit.event.block.BlockPhysicsEvent;
+import org.bukkit.event.block.BlockRedstoneEvent;
+import org.bukkit.event.player.PlayerMoveEvent;
+import org.bukkit.event.vehicle.VehicleMoveEvent;
+
+/**
+ * Reuses event instances for high frequency event types
+ *
+ * Each thread keeps one instance per pool, which is handed out again once it
+ * has been released. A caller acquires an event, resets it with the event's
+ * details, calls it and reads the outcome, then releases it:
+ *
+ * <pre>PlayerMoveEvent event = EventPool.PLAYER_MOVE.acquire();
+ * event.reset(player, from, to);
+ * pluginManager.callEvent(event);
+ * boolean cancelled = event.isCancelled();
+ * EventPool.PLAYER_MOVE.release(event);</pre>
+ *
+ * Using a released event through the accessors of the pooled event types
+ * throws an IllegalStateException, from any thread, which detects listeners
+ * that keep a reference to an event and use it between calls. The getPlayer,
+ * getBlock and getVehicle methods shared with events which are never pooled
+ * aren't checked, so they cost nothing extra for those events. A kept reference used once the instance has been acquired
+ * again reads the details of the later event instead; every acquire changes
+ * the event's generation, so code which keeps an event can detect this with
+ * {@link Event#checkGeneration(int)}. When debugging is enabled instances are
+ * never reused and released events are poisoned, so every use of a kept
+ * reference fails.
+ *
+ * @param <T> Type of event held by this pool
+ */
+public abstract class EventPool<T extends Event> {
+    public static final EventPool<PlayerMoveEvent> PLAYER_MOVE = new EventPool<PlayerMoveEvent>() {
+        @Override
+        protected PlayerMoveEvent create() {
+            return new PlayerMoveEvent(null, null, null);
+        }
+    };
+    public static final EventPool<VehicleMoveEvent> VEHICLE_MOVE = new EventPool<VehicleMoveEvent>() {
+        @Override
+        protected VehicleMoveEvent create() {
+            return new VehicleMoveEvent(null, null, null);
+        }
+    };
+    public static final EventPool<BlockPhysicsEvent> BLOCK_PHYSICS = new EventPool<BlockPhysicsEvent>() {
+        @Override
+        protected BlockPhysicsEvent create() {
+            return new BlockPhysicsEvent(null, 0);
+        }
+    };
+    public static final EventPool<BlockFromToEvent> BLOCK_FROMTO = new EventPool<BlockFromToEvent>() {
+        @Override
+        protected BlockFromToEvent create() {
+            return new BlockFromToEvent(null, null);
+        }
+    };
+    public static final EventPool<BlockRedstoneEvent> REDSTONE_CHANGE = new EventPool<BlockRedstoneEvent>() {
+        @Override
+        protected BlockRedstoneEvent create() {
+            return new BlockRedstoneEvent(null, 0, 0);
+        }
+    };
+
+    private static volatile boolean debug = false;
+    private final ThreadLocal<T> cached = new ThreadLocal<T>();
+
+    /**
+     * Creates a new, blank event for this pool
+     *
+     * @return New event instance
+     */
+    protected abstract T create();
+
+    /**
+     * Gets an event from this pool, which must be reset before it is called
+     *
+     * If the current thread's event is still in use, for example when the
+     * event is called again from one of its own listeners, a new event is
+     * created instead.
+     *
+     * @return Event ready to be reset
+     */
+    public T acquire() {
+        if (debug) {
+            return create();
+        }
+
+        T event = cached.get();
+
+        if (event == null) {
+            event = create();
+            cached.set(event);
+        } else if (event.isRecycled()) {
+            event.nextGeneration();
+            event.setRecycled(false);
+        } else {
+            // Still in use further up the stack
+            event = create();
+        }
+
+        return event;
+    }
+
+    /**
+     * Returns an event to this pool once the caller has finished with it
+     *
+     * @param event Event previously returned by {@link #acquire()}
+     */
+    public void release(T event) {
+        event.setRecycled(true);
+
+        if (debug) {
+            event.poison();
+        }
+    }
+
+    /**
+     * Checks if pool debugging is enabled
+     *
+     * @return true if events are poisoned rather than reused
+     */
+    public static boolean isDebug() {
+        return debug;
+    }
+
+    /**
+     * Sets whether pool debugging is enabled
+     *
+     * While enabled events are never reused and are poisoned when released,
+     * so any use of a released event fails.
+     *
+     * @param debug true to enable debugging
+     */
+    public static void setDebug(boolean debug) {
+        EventPool.debug = debug;
+    }
+}
@@ -24,6 +24,7 @@ public class BlockFromToEvent extends BlockEvent implements Cancellable {
      * @return Block the block is event originated from
      */
     public BlockFace getFace() {
+        checkRecycled();
         return face;
     }
 
@@ -33,6 +34,7 @@ public class BlockFromToEvent extends BlockEvent implements Cancellable {
      * @return Block the faced block
      */
     public Block getToBlock() {
+        checkRecycled();
         if (to == null) {
             to = block.getRelative(face.getModX(), face.getModY(), face.getModZ());
         }
@@ -40,10 +42,33 @@ public class BlockFromToEvent extends BlockEvent implements Cancellable {
     }
 
     public boolean isCancelled() {
+        checkRecycled();
         return cancel;
     }
 
     public void setCancelled(boolean cancel) {
+        checkRecycled();
         this.cancel = cancel;
     }
+
+    /**
+     * Reinitialises this event so it can be reused by an {@link org.bukkit.event.EventPool}
+     *
+     * @param block Block which is flowing
+     * @param face Direction the block is flowing in
+     */
+    public void reset(final Block block, final BlockFace face) {
+        checkRecycled();
+        this.block = block;
+        this.face = face;
+        this.to = null;
+        this.cancel = false;
+    }
+
+    @Override
+    protected void poison() {
+        block = null;
+        face = null;
+        to = null;
+    }
 }
@@ -9,7 +9,7 @@ import org.bukkit.Material;
  * @author Dinnerbone
  */
 public class BlockPhysicsEvent extends BlockEvent {
-    private final int changed;
+    private int changed;
     private boolean cancel = false;
 
     public BlockPhysicsEvent(final Block block, final int changed) {
@@ -23,6 +23,7 @@ public class BlockPhysicsEvent extends BlockEvent {
      * @return Changed block's type id
      */
     public int getChangedTypeId() {
+        checkRecycled();
         return changed;
     }
 
@@ -32,6 +33,7 @@ public class BlockPhysicsEvent extends BlockEvent {
      * @return Changed block's type
      */
     public Material getChangedType() {
+        checkRecycled();
         return Material.getMaterial(changed);
     }
 
@@ -42,6 +44,7 @@ public class BlockPhysicsEvent extends BlockEvent {
      * @return true if this event is cancelled
      */
     public boolean isCancelled() {
+        checkRecycled();
         return cancel;
     }
 
@@ -52,6 +55,26 @@ public class BlockPhysicsEvent extends BlockEvent {
      * @param cancel true if you wish to cancel this event
      */
     public void setCancelled(boolean cancel) {
+        checkRecycled();
         this.cancel = cancel;
     }
+
+    /**
+     * Reinitialises this event so it can be reused by an {@link org.bukkit.event.EventPool}
+     *
+     * @param block Block the physics check is for
+     * @param changed Type id of the block that changed
+     */
+    public void reset(final Block block, final int changed) {
+        checkRecycled();
+        this.block = block;
+        this.changed = changed;
+        this.cancel = false;
+    }
+
+    @Override
+    protected void poison() {
+        block = null;
+        changed = -1;
+    }
 }
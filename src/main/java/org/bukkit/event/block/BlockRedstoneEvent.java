@@ -21,6 +21,7 @@ public class BlockRedstoneEvent extends BlockEvent {
      * @return The previous current
      */
     public int getOldCurrent() {
+        checkRecycled();
         return oldCurrent;
     }
 
@@ -30,6 +31,7 @@ public class BlockRedstoneEvent extends BlockEvent {
      * @return The new current
      */
     public int getNewCurrent() {
+        checkRecycled();
         return newCurrent;
     }
 
@@ -39,6 +41,28 @@ public class BlockRedstoneEvent extends BlockEvent {
      * @param newCurrent The new current to set
      */
     public void setNewCurrent(int newCurrent) {
+        checkRecycled();
         this.newCurrent = newCurrent;
     }
+
+    /**
+     * Reinitialises this event so it can be reused by an {@link org.bukkit.event.EventPool}
+     *
+     * @param block Block whose current changed
+     * @param oldCurrent Previous redstone current
+     * @param newCurrent New redstone current
+     */
+    public void reset(final Block block, final int oldCurrent, final int newCurrent) {
+        checkRecycled();
+        this.block = block;
+        this.oldCurrent = oldCurrent;
+        this.newCurrent = newCurrent;
+    }
+
+    @Override
+    protected void poison() {
+        block = null;
+        oldCurrent = -1;
+        newCurrent = -1;
+    }
 }
@@ -36,6 +36,7 @@ public class PlayerMoveEvent extends PlayerEvent implements Cancellable {
      * @return true if this event is cancelled
      */
     public boolean isCancelled() {
+        checkRecycled();
         return cancel;
     }
 
@@ -50,6 +51,7 @@ public class PlayerMoveEvent extends PlayerEvent implements Cancellable {
      * @param cancel true if you wish to cancel this event
      */
     public void setCancelled(boolean cancel) {
+        checkRecycled();
         this.cancel = cancel;
     }
 
@@ -59,6 +61,7 @@ public class PlayerMoveEvent extends PlayerEvent implements Cancellable {
      * @return Location the player moved from
      */
     public Location getFrom() {
+        checkRecycled();
         return from;
     }
 
@@ -68,6 +71,7 @@ public class PlayerMoveEvent extends PlayerEvent implements Cancellable {
      * @param from New location to mark as the players previous location
      */
     public void setFrom(Location from) {
+        checkRecycled();
         this.from = from;
     }
 
@@ -77,6 +81,7 @@ public class PlayerMoveEvent extends PlayerEvent implements Cancellable {
      * @return Location the player moved to
      */
     public Location getTo() {
+        checkRecycled();
         return to;
     }
 
@@ -86,6 +91,29 @@ public class PlayerMoveEvent extends PlayerEvent implements Cancellable {
      * @param to New Location this player will move to
      */
     public void setTo(Location to) {
+        checkRecycled();
         this.to = to;
     }
+
+    /**
+     * Reinitialises this event so it can be reused by an {@link org.bukkit.event.EventPool}
+     *
+     * @param player Player which moved
+     * @param from Location the player moved from
+     * @param to Location the player moved to
+     */
+    public void reset(final Player player, final Location from, final Location to) {
+        checkRecycled();
+        this.player = player;
+        this.from = from;
+        this.to = to;
+        this.cancel = false;
+    }
+
+    @Override
+    protected void poison() {
+        player = null;
+        from = null;
+        to = null;
+    }
 }
@@ -35,6 +35,20 @@ public class ServerListener implements Listener {
      */
     public void onServerCommand(ServerCommandEvent event) {}
 
+    /**
+     * Called when a service provider is registered
+     *
+     * @param event Relevant event details
+     */
+    public void onServiceRegister(ServiceRegisterEvent event) {}
+
+    /**
+     * Called when a service provider is unregistered
+     *
+     * @param event Relevant event details
+     */
+    public void onServiceUnregister(ServiceUnregisterEvent event) {}
+
     // TODO: Remove after RB
     @Deprecated public void onPluginDisable(PluginEvent event) {}
     @Deprecated public void onPluginEnable(PluginEvent event) {}
@@ -0,0 +1,25 @@
+package org.bukkit.event.server;
+
+import org.bukkit.plugin.RegisteredServiceProvider;
+
+/**
+ * Used for service provider registered and unregistered events
+ */
+public class ServiceEvent extends ServerEvent {
+    private final RegisteredServiceProvider<?> provider;
+
+    public ServiceEvent(final Type type, final RegisteredServiceProvider<?> provider) {
+        super(type);
+
+        this.provider = provider;
+    }
+
+    /**
+     * Gets the registration of the provider involved in this event
+     *
+     * @return RegisteredServiceProvider for this event
+     */
+    public RegisteredServiceProvider<?> getProvider() {
+        return provider;
+    }
+}
@@ -0,0 +1,9 @@
+package org.bukkit.event.server;
+
+import org.bukkit.plugin.RegisteredServiceProvider;
+
+public class ServiceRegisterEvent extends ServiceEvent {
+    public ServiceRegisterEvent(RegisteredServiceProvider<?> provider) {
+        super(Type.SERVICE_REGISTER, provider);
+    }
+}
@@ -0,0 +1,9 @@
+package org.bukkit.event.server;
+
+import org.bukkit.plugin.RegisteredServiceProvider;
+
+public class ServiceUnregisterEvent extends ServiceEvent {
+    public ServiceUnregisterEvent(RegisteredServiceProvider<?> provider) {
+        super(Type.SERVICE_UNREGISTER, provider);
+    }
+}
@@ -25,6 +25,7 @@ public class VehicleMoveEvent extends VehicleEvent {
      * @return
      */
     public Location getFrom() {
+        checkRecycled();
         return from;
     }
 
@@ -34,6 +35,28 @@ public class VehicleMoveEvent extends VehicleEvent {
      * @return
      */
     public Location getTo() {
+        checkRecycled();
         return to;
     }
+
+    /**
+     * Reinitialises this event so it can be reused by an {@link org.bukkit.event.EventPool}
+     *
+     * @param vehicle Vehicle which moved
+     * @param from Location the vehicle moved from
+     * @param to Location the vehicle moved to
+     */
+    public void reset(final Vehicle vehicle, final Location from, final Location to) {
+        checkRecycled();
+        this.vehicle = vehicle;
+        this.from = from;
+        this.to = to;
+    }
+
+    @Override
+    protected void poison() {
+        vehicle = null;
+        from = null;
+        to = null;
+    }
 }
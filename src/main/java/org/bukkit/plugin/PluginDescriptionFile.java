@@ -14,7 +14,13 @@ import org.yaml.snakeyaml.constructor.SafeConstructor;
  * Provides access to a Plugins description file, plugin.yaml
  */
 public final class PluginDescriptionFile {
-    private static final Yaml yaml = new Yaml(new SafeConstructor());
+    // Yaml instances are not thread safe and descriptions are loaded in parallel
+    private static final ThreadLocal<Yaml> yaml = new ThreadLocal<Yaml>() {
+        @Override
+        protected Yaml initialValue() {
+            return new Yaml(new SafeConstructor());
+        }
+    };
     private String name = null;
     private String main = null;
     private ArrayList<String> depend = new ArrayList<String>();
@@ -28,7 +34,7 @@ public final class PluginDescriptionFile {
 
     @SuppressWarnings("unchecked")
     public PluginDescriptionFile(final InputStream stream) throws InvalidDescriptionException {
-        loadMap((Map<String, Object>) yaml.load(stream));
+        loadMap((Map<String, Object>) yaml.get().load(stream));
     }
 
     /**
@@ -37,7 +43,16 @@ public final class PluginDescriptionFile {
      */
     @SuppressWarnings("unchecked")
     public PluginDescriptionFile(final Reader reader) throws InvalidDescriptionException {
-        loadMap((Map<String, Object>) yaml.load(reader));
+        loadMap((Map<String, Object>) yaml.get().load(reader));
+    }
+
+    /**
+     * Loads a PluginDescriptionFile from the already parsed values of a plugin.yml
+     *
+     * @param map Values of the plugin.yml
+     */
+    public PluginDescriptionFile(final Map<String, Object> map) throws InvalidDescriptionException {
+        loadMap(map);
     }
 
     /**
@@ -58,7 +73,7 @@ public final class PluginDescriptionFile {
      * @param writer Writer to output this file to
      */
     public void save(Writer writer) {
-        yaml.dump(saveMap(), writer);
+        yaml.get().dump(saveMap(), writer);
     }
 
     /**
@@ -235,7 +250,12 @@ public final class PluginDescriptionFile {
         }
     }
 
-    private Map<String, Object> saveMap() {
+    /**
+     * Gets the values of this PluginDescriptionFile as they are saved to plugin.yml
+     *
+     * @return Map of the values
+     */
+    public Map<String, Object> saveMap() {
         Map<String, Object> map = new HashMap<String, Object>();
 
         map.put("name", name);
@@ -244,7 +264,7 @@ public final class PluginDescriptionFile {
         map.put("database", database);
 
         if (commands != null) {
-            map.put("command", commands);
+            map.put("commands", commands);
         }
         if (depend != null && 0 != depend.size()) {
             map.put("depend", depend);
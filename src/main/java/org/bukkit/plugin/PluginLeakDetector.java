@@ -0,0 +1,233 @@
+package org.bukkit.plugin;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Tracks the class loaders of unloaded plugins and reports the ones which are
+ * never garbage collected
+ *
+ * Once a plugin is unloaded nothing should reference its class loader. A loader
+ * which is still reachable after a number of garbage collections usually means
+ * something still holds one of the plugin's objects, such as a listener,
+ * service provider, task or thread, which keeps all of its classes loaded.
+ *
+ * Only full or old generation collections are counted, since young generation
+ * collections don't unload classes and may happen many times a second.
+ */
+public final class PluginLeakDetector {
+    private static final long POLL_INTERVAL = 5000;
+    private static final Set<String> YOUNG_COLLECTORS = new HashSet<String>(Arrays.asList("Copy", "PS Scavenge", "ParNew", "G1 Young Generation"));
+
+    private final Logger logger;
+    private final ReferenceQueue<ClassLoader> queue = new ReferenceQueue<ClassLoader>();
+    private final Set<LoaderReference> references = new HashSet<LoaderReference>();
+    private volatile int gcThreshold = 10;
+    private Thread thread = null;
+
+    public PluginLeakDetector(Logger logger) {
+        this.logger = logger;
+    }
+
+    /**
+     * Starts tracking the class loader of a plugin which has been unloaded
+     *
+     * @param plugin Plugin which was unloaded
+     * @param loader Class loader of the plugin
+     */
+    public void track(Plugin plugin, ClassLoader loader) {
+        if (null == loader || loader == PluginLeakDetector.class.getClassLoader()) {
+            return;
+        }
+
+        synchronized (references) {
+            references.add(new LoaderReference(plugin.getDescription().getFullName(), loader, queue, getCollectionCount()));
+
+            if (null == thread) {
+                thread = new Thread("Bukkit Leak Detector") {
+                    @Override
+                    public void run() {
+                        poll();
+                    }
+                };
+                thread.setDaemon(true);
+                // Don't keep the loader of whichever plugin thread started it alive
+                thread.setContextClassLoader(PluginLeakDetector.class.getClassLoader());
+                thread.start();
+            }
+        }
+    }
+
+    /**
+     * Gets the number of garbage collections a loader must survive to be reported
+     *
+     * @return Number of garbage collections
+     */
+    public int getGcThreshold() {
+        return gcThreshold;
+    }
+
+    /**
+     * Sets the number of garbage collections a loader must survive to be reported
+     *
+     * @param gcThreshold Number of garbage collections
+     */
+    public void setGcThreshold(int gcThreshold) {
+        if (gcThreshold < 1) {
+            throw new IllegalArgumentException("Threshold must be at least 1");
+        }
+        this.gcThreshold = gcThreshold;
+    }
+
+    /**
+     * Gets the plugins which were unloaded but whose class loaders haven't been
+     * garbage collected yet
+     *
+     * @return Full names of the plugins
+     */
+    public List<String> getUnloadedPlugins() {
+        expunge();
+
+        List<String> result = new ArrayList<String>();
+        synchronized (references) {
+            for (LoaderReference reference : references) {
+                result.add(reference.pluginName);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Gets the plugins whose class loaders survived more garbage collections
+     * than the threshold after they were unloaded
+     *
+     * @return Full names of the plugins
+     */
+    public List<String> getLeakedPlugins() {
+        expunge();
+
+        long collections = getCollectionCount();
+        List<String> result = new ArrayList<String>();
+        synchronized (references) {
+            for (LoaderReference reference : references) {
+                if (collections - reference.collections >= gcThreshold) {
+                    result.add(reference.pluginName);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Requests garbage collections until every unloaded plugin's class loader
+     * is collected or enough collections have passed for the rest to count as leaked
+     *
+     * This blocks while the collections run and should only be used on request,
+     * for example after reloading plugins
+     *
+     * @return Full names of the plugins whose class loaders are still loaded
+     */
+    public List<String> verifyUnloaded() {
+        for (int i = 0; i < gcThreshold && !getUnloadedPlugins().isEmpty(); i++) {
+            System.gc();
+
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        report();
+        return getUnloadedPlugins();
+    }
+
+    private void poll() {
+        while (true) {
+            try {
+                Reference<? extends ClassLoader> reference = queue.remove(POLL_INTERVAL);
+
+                if (null != reference) {
+                    collected(reference);
+                }
+            } catch (InterruptedException ex) {
+                return;
+            }
+
+            report();
+        }
+    }
+
+    private void expunge() {
+        Reference<? extends ClassLoader> reference;
+
+        while (null != (reference = queue.poll())) {
+            collected(reference);
+        }
+    }
+
+    private void collected(Reference<? extends ClassLoader> reference) {
+        reference.clear();
+        synchronized (references) {
+            references.remove(reference);
+        }
+    }
+
+    private void report() {
+        expunge();
+
+        long collections = getCollectionCount();
+        synchronized (references) {
+            for (LoaderReference reference : references) {
+                if (!reference.reported && collections - reference.collections >= gcThreshold) {
+                    reference.reported = true;
+                    logger.log(Level.WARNING, "The class loader of " + reference.pluginName + " was not garbage collected " + (collections - reference.collections) + " collections after the plugin was unloaded. Something still holds a reference to one of its objects.");
+                }
+            }
+        }
+    }
+
+    private static long getCollectionCount() {
+        long count = 0;
+
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (isFullCollector(bean.getName())) {
+                count += Math.max(0, bean.getCollectionCount());
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Checks if a collector collects the old generation, which is when class
+     * loaders are unloaded. Unknown collectors are counted.
+     */
+    private static boolean isFullCollector(String name) {
+        // ZGC and Shenandoah also count each of their pauses, which would count a cycle several times
+        return !YOUNG_COLLECTORS.contains(name) && !name.contains("Minor") && !name.contains("Pauses");
+    }
+
+    private static class LoaderReference extends PhantomReference<ClassLoader> {
+        private final String pluginName;
+        private final long collections;
+        private boolean reported = false;
+
+        public LoaderReference(String pluginName, ClassLoader loader, ReferenceQueue<ClassLoader> queue, long collections) {
+            super(loader, queue);
+            this.pluginName = pluginName;
+            this.collections = collections;
+        }
+    }
+}
@@ -73,4 +73,14 @@ public interface PluginLoader {
      * @param plugin Plugin to disable
      */
     public void disablePlugin(Plugin plugin);
+
+    /**
+     * Unloads the specified plugin, disabling it first if needed
+     *
+     * The plugin can't be enabled again once it has been unloaded, its
+     * resources such as its class loader are released
+     *
+     * @param plugin Plugin to unload
+     */
+    public void unloadPlugin(Plugin plugin);
 }
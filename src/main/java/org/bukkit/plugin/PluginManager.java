@@ -1,6 +1,7 @@
 package org.bukkit.plugin;
 
 import java.io.File;
+import java.util.concurrent.Future;
 
 import org.bukkit.event.Event;
 import org.bukkit.event.Event.Priority;
@@ -74,6 +75,26 @@ public interface PluginManager {
      */
     public Plugin[] loadPlugins(File directory);
 
+    /**
+     * Reloads a plugin from its file without reloading the rest of the server
+     *
+     * The plugin's listeners, commands, services and tasks are removed and its
+     * class loader is released before the file is loaded again. Plugins which
+     * depend or soft depend on it are reloaded too, in dependency order, and
+     * every reloaded plugin which was enabled is enabled again
+     *
+     * If the plugin itself fails to load, its dependents are still loaded again
+     * before the failure is thrown
+     *
+     * @param plugin Plugin to reload
+     * @return The reloaded Plugin, or null if it could not be loaded again
+     * @throws InvalidPluginException Thrown when the plugin's file is no longer a valid plugin
+     * @throws InvalidDescriptionException Thrown when the plugin's file contains an invalid description
+     * @throws UnknownDependencyException Thrown when a dependency of the plugin is missing
+     * @throws IllegalStateException Thrown when this plugin manager can't register the commands of reloaded plugins
+     */
+    public Plugin reloadPlugin(Plugin plugin) throws InvalidPluginException, InvalidDescriptionException, UnknownDependencyException;
+
     /**
      * Disables all the loaded plugins
      */
@@ -92,6 +113,34 @@ public interface PluginManager {
      */
     public void callEvent(Event event);
 
+    /**
+     * Calls an event on a worker thread, returning a Future which completes once
+     * every listener has been called
+     *
+     * Listeners are called in priority order exactly as with {@link #callEvent(Event)}.
+     * Listeners registered as async safe run on the worker thread, all others are
+     * passed to the main thread in turn, so the event should not be modified by the
+     * caller until the Future is done.
+     *
+     * Note: The Future.get() methods must NOT be called from the main thread
+     *
+     * @param event Event details
+     * @return Future which returns the event once all listeners have been called
+     * @throws java.util.concurrent.RejectedExecutionException Thrown when too many events are already waiting for a worker
+     */
+    public <T extends Event> Future<T> callEventAsync(T event);
+
+    /**
+     * Checks if any listeners are registered for the specified event type
+     *
+     * This is cheap enough to be used to skip creating an event which nothing
+     * would receive.
+     *
+     * @param type EventType to check
+     * @return true if at least one listener is registered for the type
+     */
+    public boolean hasListeners(Event.Type type);
+
     /**
      * Registers the given event to the specified listener
      *
@@ -113,6 +162,20 @@ public interface PluginManager {
      */
     public void registerEvent(Event.Type type, Listener listener, EventExecutor executor, Priority priority, Plugin plugin);
 
+    /**
+     * Registers the given event to the specified listener, which is safe to be
+     * called from threads other than the main thread
+     *
+     * When the event is called with {@link #callEventAsync(Event)} the listener
+     * is called on an event worker thread
+     *
+     * @param type EventType to register
+     * @param listener Listener to register
+     * @param priority Priority of this event
+     * @param plugin Plugin to register
+     */
+    public void registerAsyncEvent(Event.Type type, Listener listener, Priority priority, Plugin plugin);
+
     /**
      * Enables the specified plugin
      *
@@ -130,4 +193,41 @@ public interface PluginManager {
      * @param plugin Plugin to disable
      */
     public void disablePlugin(Plugin plugin);
+
+    /**
+     * Gets the listeners registered for the specified event type, in the order they are called
+     *
+     * @param type EventType to lookup
+     * @return Array of RegisteredListeners, empty if there are none
+     */
+    public RegisteredListener[] getRegisteredListeners(Event.Type type);
+
+    /**
+     * Checks if listener timings are being recorded
+     *
+     * @return true if the time spent in each listener is recorded
+     */
+    public boolean useTimings();
+
+    /**
+     * Sets whether listener timings are recorded
+     *
+     * The recorded timings can be read from each {@link RegisteredListener}
+     *
+     * @param use true to record the time spent in each listener
+     */
+    public void setUseTimings(boolean use);
+
+    /**
+     * Clears the recorded timings of all registered listeners
+     */
+    public void resetTimings();
+
+    /**
+     * Gets the detector tracking the class loaders of unloaded plugins, which
+     * reports the ones that are never garbage collected
+     *
+     * @return PluginLeakDetector of this manager
+     */
+    public PluginLeakDetector getLeakDetector();
 }
@@ -1,5 +1,7 @@
 package org.bukkit.plugin;
 
+import java.util.concurrent.atomic.AtomicLongArray;
+
 import org.bukkit.event.Event;
 import org.bukkit.event.Listener;
 
@@ -7,16 +9,27 @@ import org.bukkit.event.Listener;
  * Stores relevant information for plugin listeners
  */
 public class RegisteredListener {
+    // Timings are split into stripes picked by thread, each on its own cache
+    // line, so async events called from several threads don't contend
+    private static final int STRIPES = stripeCount();
+    private static final int STRIDE = 8;
+    private static final int CALLS = 0;
+    private static final int TOTAL = 1;
+    private static final int MAX = 2;
     private final Listener listener;
     private final Event.Priority priority;
     private final Plugin plugin;
     private final EventExecutor executor;
+    private final boolean async;
+    // Only allocated once a call is timed, as timings are usually off
+    private volatile AtomicLongArray timings = null;
 
     public RegisteredListener(final Listener pluginListener, final EventExecutor eventExecutor, final Event.Priority eventPriority, final Plugin registeredPlugin) {
         listener = pluginListener;
         priority = eventPriority;
         plugin = registeredPlugin;
         executor = eventExecutor;
+        async = false;
     }
 
     public RegisteredListener(final Listener pluginListener, final Event.Priority eventPriority, final Plugin registeredPlugin, Event.Type type) {
@@ -24,6 +37,15 @@ public class RegisteredListener {
         priority = eventPriority;
         plugin = registeredPlugin;
         executor = registeredPlugin.getPluginLoader().createExecutor(type, pluginListener);
+        async = false;
+    }
+
+    public RegisteredListener(final Listener pluginListener, final Event.Priority eventPriority, final Plugin registeredPlugin, Event.Type type, final boolean asyncSafe) {
+        listener = pluginListener;
+        priority = eventPriority;
+        plugin = registeredPlugin;
+        executor = registeredPlugin.getPluginLoader().createExecutor(type, pluginListener);
+        async = asyncSafe;
     }
 
     /**
@@ -50,6 +72,14 @@ public class RegisteredListener {
         return priority;
     }
 
+    /**
+     * Checks if this listener may be called from a thread other than the main thread
+     * @return true if the listener was registered as async safe
+     */
+    public boolean isAsync() {
+        return async;
+    }
+
     /**
      * Calls the event executor
      * @return Registered Priority
@@ -57,4 +87,113 @@ public class RegisteredListener {
     public void callEvent(Event event) {
         executor.execute(listener, event);
     }
+
+    /**
+     * Records the time taken by a single call of this listener
+     *
+     * @param nanos Duration of the call in nanoseconds
+     */
+    public void addTiming(long nanos) {
+        AtomicLongArray timings = getTimings();
+        int stripe = ((int) Thread.currentThread().getId() & (STRIPES - 1)) * STRIDE;
+
+        timings.incrementAndGet(stripe + CALLS);
+        timings.addAndGet(stripe + TOTAL, nanos);
+
+        long max = timings.get(stripe + MAX);
+        while (nanos > max && !timings.compareAndSet(stripe + MAX, max, nanos)) {
+            max = timings.get(stripe + MAX);
+        }
+    }
+
+    /**
+     * Gets the number of timed calls of this listener
+     * @return Number of calls recorded while timings were enabled
+     */
+    public long getCallCount() {
+        return sum(CALLS);
+    }
+
+    /**
+     * Gets the total time spent in this listener
+     * @return Total time of all timed calls in nanoseconds
+     */
+    public long getTotalTime() {
+        return sum(TOTAL);
+    }
+
+    /**
+     * Gets the longest time spent in a single call of this listener
+     * @return Maximum time of a timed call in nanoseconds
+     */
+    public long getMaxTime() {
+        AtomicLongArray timings = this.timings;
+        long max = 0;
+
+        if (timings == null) {
+            return 0;
+        }
+
+        for (int i = 0; i < STRIPES; i++) {
+            max = Math.max(max, timings.get(i * STRIDE + MAX));
+        }
+
+        return max;
+    }
+
+    /**
+     * Clears the recorded timings of this listener
+     */
+    public void resetTimings() {
+        AtomicLongArray timings = this.timings;
+
+        if (timings == null) {
+            return;
+        }
+
+        for (int i = 0; i < timings.length(); i++) {
+            timings.set(i, 0);
+        }
+    }
+
+    private AtomicLongArray getTimings() {
+        AtomicLongArray timings = this.timings;
+
+        if (timings == null) {
+            synchronized (this) {
+                timings = this.timings;
+                if (timings == null) {
+                    timings = new AtomicLongArray(STRIPES * STRIDE);
+                    this.timings = timings;
+                }
+            }
+        }
+
+        return timings;
+    }
+
+    private long sum(int offset) {
+        AtomicLongArray timings = this.timings;
+        long sum = 0;
+
+        if (timings == null) {
+            return 0;
+        }
+
+        for (int i = 0; i < STRIPES; i++) {
+            sum += timings.get(i * STRIDE + offset);
+        }
+
+        return sum;
+    }
+
+    private static int stripeCount() {
+        int stripes = 1;
+
+        while (stripes < Runtime.getRuntime().availableProcessors() && stripes < 16) {
+            stripes <<= 1;
+        }
+
+        return stripes;
+    }
 }
@@ -0,0 +1,62 @@
+package org.bukkit.plugin;
+
+/**
+ * A handle to the highest priority provider of a service, which is kept up
+ * to date by the services manager as providers are registered and unregistered.
+ *
+ * Handles can be kept and read from any thread, reading one never locks.
+ *
+ * @param <T> Service
+ */
+public final class ServiceHandle<T> {
+
+    private final Class<T> service;
+    private volatile RegisteredServiceProvider<T> registration;
+
+    ServiceHandle(Class<T> service, RegisteredServiceProvider<T> registration) {
+        this.service = service;
+        this.registration = registration;
+    }
+
+    /**
+     * Gets the service this handle is for.
+     *
+     * @return service class
+     */
+    public Class<T> getService() {
+        return service;
+    }
+
+    /**
+     * Gets the highest priority provider of the service.
+     *
+     * @return provider or null
+     */
+    public T get() {
+        RegisteredServiceProvider<T> current = registration;
+
+        return current == null ? null : current.getProvider();
+    }
+
+    /**
+     * Gets the registration of the highest priority provider of the service.
+     *
+     * @return provider registration or null
+     */
+    public RegisteredServiceProvider<T> getRegistration() {
+        return registration;
+    }
+
+    /**
+     * Returns whether the service currently has a provider.
+     *
+     * @return whether there is a registered provider
+     */
+    public boolean isAvailable() {
+        return registration != null;
+    }
+
+    void update(RegisteredServiceProvider<T> registration) {
+        this.registration = registration;
+    }
+}
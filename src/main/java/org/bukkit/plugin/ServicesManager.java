@@ -69,6 +69,17 @@ public interface ServicesManager {
      */
     public <T> RegisteredServiceProvider<T> getRegistration(Class<T> service);
 
+    /**
+     * Gets a handle to the highest priority provider of a service. The handle
+     * can be kept, it stays up to date as providers are registered and
+     * unregistered and reading it never locks.
+     *
+     * @param <T>
+     * @param service
+     * @return handle for the service
+     */
+    public <T> ServiceHandle<T> getHandle(Class<T> service);
+
     /**
      * Get registrations of providers for a plugin.
      *
@@ -3,22 +3,35 @@ package org.bukkit.plugin;
 import java.io.File;
 import java.lang.reflect.Constructor;
 import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.EnumMap;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.SortedSet;
-import java.util.TreeSet;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.logging.Level;
 import java.util.regex.Matcher;
 import org.bukkit.Server;
 import java.util.regex.Pattern;
 
+import org.bukkit.command.CommandMap;
+import org.bukkit.command.PluginCommandYamlParser;
 import org.bukkit.event.Event;
 import org.bukkit.event.Event.Priority;
 import org.bukkit.event.Listener;
@@ -33,22 +46,43 @@ public final class SimplePluginManager implements PluginManager {
     private final Map<Pattern, PluginLoader> fileAssociations = new HashMap<Pattern, PluginLoader>();
     private final List<Plugin> plugins = new ArrayList<Plugin>();
     private final Map<String, Plugin> lookupNames = new HashMap<String, Plugin>();
-    private final Map<Event.Type, SortedSet<RegisteredListener>> listeners = new EnumMap<Event.Type, SortedSet<RegisteredListener>>(Event.Type.class);
-    private static File updateDirectory = null;
-    private final Comparator<RegisteredListener> comparer = new Comparator<RegisteredListener>() {
-        public int compare(RegisteredListener i, RegisteredListener j) {
-            int result = i.getPriority().compareTo(j.getPriority());
-
-            if ((result == 0) && (i != j)) {
-                result = 1;
-            }
-
-            return result;
+    private final Map<Plugin, File> pluginFiles = new HashMap<Plugin, File>();
+    private final CommandMap commandMap;
+    private final PluginLeakDetector leakDetector;
+    private final AtomicReferenceArray<RegisteredListener[]> listeners = new AtomicReferenceArray<RegisteredListener[]>(Event.Type.values().length);
+    private final Object listenersLock = new Object();
+    private volatile boolean useTimings = false;
+    private static final int ASYNC_EVENT_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+    private static final int ASYNC_EVENT_QUEUE = 1024;
+    // Bounded so a flood of async events is rejected instead of queued without limit
+    private final ExecutorService asyncEventExecutor = new ThreadPoolExecutor(ASYNC_EVENT_THREADS, ASYNC_EVENT_THREADS, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(ASYNC_EVENT_QUEUE), new ThreadFactory() {
+        private final AtomicInteger threadId = new AtomicInteger();
+
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "Bukkit Event Worker #" + threadId.incrementAndGet());
+
+            thread.setDaemon(true);
+            // Workers may be started from a plugin's thread, don't keep its loader alive
+            thread.setContextClassLoader(SimplePluginManager.class.getClassLoader());
+            return thread;
         }
-    };
+    }, new ThreadPoolExecutor.AbortPolicy());
+    private static File updateDirectory = null;
 
     public SimplePluginManager(Server instance) {
+        this(instance, null);
+    }
+
+    /**
+     * Creates a plugin manager which also registers the commands of plugins it reloads
+     *
+     * @param instance Server the plugins are loaded for
+     * @param commandMap CommandMap the plugins' commands are registered to
+     */
+    public SimplePluginManager(Server instance, CommandMap commandMap) {
         server = instance;
+        this.commandMap = commandMap;
+        leakDetector = new PluginLeakDetector(instance.getLogger());
     }
 
     /**
@@ -89,6 +123,11 @@ public final class SimplePluginManager implements PluginManager {
     /**
      * Loads the plugins contained within the specified directory
      *
+     * Plugin descriptions are read in parallel, then plugins are loaded in layers
+     * of the dependency graph. Plugins within a layer don't depend on each other,
+     * so they are class loaded and constructed in parallel. Enabling dependencies
+     * is always done by the calling thread.
+     *
      * @param directory Directory to check for plugins
      * @return A list of all plugins loaded
      */
@@ -99,51 +138,148 @@ public final class SimplePluginManager implements PluginManager {
             updateDirectory = new File(directory, server.getUpdateFolder());
         }
 
-        PluginSorter pluginSorter = new PluginSorter(directory);
-        for (File file : directory.listFiles()) {
+        // Sorted so the load order doesn't depend on the order the OS lists files in
+        File[] listed = directory.listFiles();
+        Arrays.sort(listed);
+
+        List<File> files = new ArrayList<File>();
+        for (File file : listed) {
             if (file.isFile()) {
                 updatePlugin(file); // Ensure its up to date first as this may change dependencies
-                PluginLoader pluginLoader = pluginLoader(file);
-                if (null != pluginLoader) {
-                    try {
-                        pluginSorter.addPlugin(pluginLoader.getPluginDescription(file), file);
-                    } catch (InvalidPluginException ex) {
-                        server.getLogger().log(Level.SEVERE, "Could not load '" + file.getPath() + "' in folder '" + directory.getPath() + "': ", ex.getCause());
-                    } catch (InvalidDescriptionException ex) {
-                        server.getLogger().log(Level.SEVERE, "Could not load '" + file.getPath() + "' in folder '" + directory.getPath() + "': " + ex.getMessage(), ex);
-                    }
+                if (null != pluginLoader(file)) {
+                    files.add(file);
                 }
             }
         }
 
+        ExecutorService loadExecutor = Executors.newFixedThreadPool(Math.max(1, Math.min(files.size(), Runtime.getRuntime().availableProcessors())));
+
         try {
-            for (PluginNode pluginVertex : pluginSorter.orderedPlugins()) {
-                Plugin plugin = null;
-                File file = pluginVertex.getFile();
-                String pluginName = pluginVertex.getName();
+            List<Future<PluginDescriptionFile>> descriptions = new ArrayList<Future<PluginDescriptionFile>>(files.size());
+            for (final File file : files) {
+                final PluginLoader pluginLoader = pluginLoader(file);
+
+                descriptions.add(loadExecutor.submit(new Callable<PluginDescriptionFile>() {
+                    public PluginDescriptionFile call() throws Exception {
+                        return pluginLoader.getPluginDescription(file);
+                    }
+                }));
+            }
+
+            // Added in directory order so the load order doesn't depend on which parse finished first
+            PluginSorter pluginSorter = new PluginSorter(directory);
+            for (int i = 0; i < files.size(); i++) {
+                File file = files.get(i);
+
                 try {
-                    // Note: We rely on loadPlugin rechecking dependencies to ensure plugins that depend
-                    // on previously failed load plugins give the right error
-                    plugin = loadPlugin(file, false);
-                } catch (UnknownDependencyException ex) {
-                    server.getLogger().log(Level.SEVERE, "Failed to load plugin '" + pluginVertex.getName() + "' from '" + file.getPath() + "' in folder '" + directory.getPath() + "': " + ex.getMessage(), ex);
+                    pluginSorter.addPlugin(getLoadResult(descriptions.get(i)), file);
                 } catch (InvalidPluginException ex) {
-                    server.getLogger().log(Level.SEVERE, "Failed to load plugin '" + pluginVertex.getName() + "' from '" + file.getPath() + "' in folder '" + directory.getPath() + "': ", ex.getCause());
+                    server.getLogger().log(Level.SEVERE, "Could not load '" + file.getPath() + "' in folder '" + directory.getPath() + "': ", ex.getCause());
                 } catch (InvalidDescriptionException ex) {
-                    server.getLogger().log(Level.SEVERE, "Failed to load plugin '" + pluginVertex.getName() + "' from '" + file.getPath() + "' in folder '" + directory.getPath() + "': " + ex.getMessage(), ex);
+                    server.getLogger().log(Level.SEVERE, "Could not load '" + file.getPath() + "' in folder '" + directory.getPath() + "': " + ex.getMessage(), ex);
+                } catch (UnknownDependencyException ex) {
+                    server.getLogger().log(Level.SEVERE, "Could not load '" + file.getPath() + "' in folder '" + directory.getPath() + "': " + ex.getMessage(), ex);
                 }
+            }
 
-                if (plugin != null) {
-                    result.add(plugin);
+            try {
+                for (List<PluginNode> layer : pluginSorter.getLayers()) {
+                    loadLayer(layer, directory, loadExecutor, result);
                 }
+            } catch (CyclicDependencyException e) {
+                server.getLogger().log(Level.SEVERE, "Could not load plugins in folder '" + directory.getPath() + "': " + e.getMessage(), e);
             }
-        } catch (CyclicDependencyException e) {
-            server.getLogger().log(Level.SEVERE, "Could not load plugins in folder '" + directory.getPath() + "': " + e.getMessage(), e);
+        } finally {
+            loadExecutor.shutdown();
         }
 
         return result.toArray(new Plugin[result.size()]);
     }
 
+    /**
+     * Loads a layer of plugins which don't depend on each other
+     *
+     * @param layer Plugins to load
+     * @param directory Directory the plugins are being loaded from
+     * @param loadExecutor Executor to construct the plugins with
+     * @param result List to add the loaded plugins to
+     */
+    private void loadLayer(List<PluginNode> layer, File directory, ExecutorService loadExecutor, List<Plugin> result) {
+        List<PluginNode> loading = new ArrayList<PluginNode>(layer.size());
+        List<Future<Plugin>> loaded = new ArrayList<Future<Plugin>>(layer.size());
+
+        for (PluginNode pluginVertex : layer) {
+            final File file = pluginVertex.getFile();
+
+            try {
+                // Note: We rely on rechecking dependencies to ensure plugins that depend
+                // on previously failed load plugins give the right error
+                if (!enableDependencies(pluginVertex.getDescription())) {
+                    continue;
+                }
+            } catch (UnknownDependencyException ex) {
+                server.getLogger().log(Level.SEVERE, "Failed to load plugin '" + pluginVertex.getName() + "' from '" + file.getPath() + "' in folder '" + directory.getPath() + "': " + ex.getMessage(), ex);
+                continue;
+            }
+
+            final PluginLoader pluginLoader = pluginLoader(file);
+
+            loading.add(pluginVertex);
+            loaded.add(loadExecutor.submit(new Callable<Plugin>() {
+                public Plugin call() throws Exception {
+                    return pluginLoader.loadPlugin(file);
+                }
+            }));
+        }
+
+        for (int i = 0; i < loading.size(); i++) {
+            PluginNode pluginVertex = loading.get(i);
+            File file = pluginVertex.getFile();
+            Plugin plugin = null;
+
+            try {
+                plugin = getLoadResult(loaded.get(i));
+            } catch (UnknownDependencyException ex) {
+                server.getLogger().log(Level.SEVERE, "Failed to load plugin '" + pluginVertex.getName() + "' from '" + file.getPath() + "' in folder '" + directory.getPath() + "': " + ex.getMessage(), ex);
+            } catch (InvalidPluginException ex) {
+                server.getLogger().log(Level.SEVERE, "Failed to load plugin '" + pluginVertex.getName() + "' from '" + file.getPath() + "' in folder '" + directory.getPath() + "': ", ex.getCause());
+            } catch (InvalidDescriptionException ex) {
+                server.getLogger().log(Level.SEVERE, "Failed to load plugin '" + pluginVertex.getName() + "' from '" + file.getPath() + "' in folder '" + directory.getPath() + "': " + ex.getMessage(), ex);
+            }
+
+            if (plugin != null) {
+                addPlugin(plugin, file);
+                result.add(plugin);
+            }
+        }
+    }
+
+    /**
+     * Gets the result of a parallel load, unwrapping the exception it failed with
+     *
+     * @param future Result of the load
+     * @return Result of the load
+     */
+    private <T> T getLoadResult(Future<T> future) throws InvalidPluginException, InvalidDescriptionException, UnknownDependencyException {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InvalidPluginException(ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+
+            if (cause instanceof InvalidPluginException) {
+                throw (InvalidPluginException) cause;
+            } else if (cause instanceof InvalidDescriptionException) {
+                throw (InvalidDescriptionException) cause;
+            } else if (cause instanceof UnknownDependencyException) {
+                throw (UnknownDependencyException) cause;
+            }
+            throw new InvalidPluginException(cause);
+        }
+    }
+
     private PluginLoader pluginLoader(File file) {
         for (Pattern filter : fileAssociations.keySet()) {
             String name = file.getName();
@@ -161,10 +297,20 @@ public final class SimplePluginManager implements PluginManager {
         File updateFile = null;
 
         if (file.isFile() && updateDirectory != null && updateDirectory.isDirectory() && (updateFile = new File(updateDirectory, file.getName())).isFile()) {
-            if (FileUtil.copy(updateFile, file)) {
-                updateFile.delete();
-                return true;
+            // The old jar may still be mapped by its loader, so it is replaced
+            // rather than overwritten in place
+            File tmpFile = new File(file.getPath() + ".update");
+
+            if (FileUtil.copy(updateFile, tmpFile)) {
+                if (tmpFile.renameTo(file) || (file.delete() && tmpFile.renameTo(file))) {
+                    updateFile.delete();
+                    return true;
+                }
+
+                server.getLogger().log(Level.WARNING, "Could not replace " + file + " with its update, it will be applied on the next start");
             }
+
+            tmpFile.delete();
         }
 
         return false;
@@ -206,6 +352,26 @@ public final class SimplePluginManager implements PluginManager {
         }
 
         PluginDescriptionFile description = pluginLoader.getPluginDescription(file);
+        if (!enableDependencies(description)) {
+            return null; // Dependency failed to load
+        }
+
+        Plugin result = pluginLoader.loadPlugin(file);
+        if (result != null) {
+            addPlugin(result, file);
+        }
+
+        return result;
+    }
+
+    /**
+     * Ensures all the hard dependencies of a plugin are loaded and enabled
+     *
+     * @param description Description of the plugin about to be loaded
+     * @return true if all dependencies are enabled, false if one failed to enable
+     * @throws UnknownDependencyException Thrown when a dependency is not loaded
+     */
+    private synchronized boolean enableDependencies(PluginDescriptionFile description) throws UnknownDependencyException {
         for (String dependencyName : description.getDepend()) {
             Plugin dependency = getPlugin(dependencyName);
             if (null == dependency) {
@@ -215,20 +381,194 @@ public final class SimplePluginManager implements PluginManager {
             } else if (!dependency.isEnabled()) {
                 // Enable the dependency plugin and all its dependencies
                 if (!enablePlugin(dependency, true)) {
-                    return null; // Dependency failed to load
+                    return false;
                 }
             }
         }
 
-        Plugin result = pluginLoader.loadPlugin(file);
-        if (result != null) {
-            plugins.add(result);
-            lookupNames.put(result.getDescription().getName(), result);
+        return true;
+    }
+
+    private synchronized void addPlugin(Plugin plugin, File file) {
+        plugins.add(plugin);
+        lookupNames.put(plugin.getDescription().getName(), plugin);
+        pluginFiles.put(plugin, file);
+    }
+
+    public synchronized Plugin reloadPlugin(Plugin plugin) throws InvalidPluginException, InvalidDescriptionException, UnknownDependencyException {
+        File file = pluginFiles.get(plugin);
+
+        if (null == file) {
+            throw new IllegalArgumentException("Plugin is not loaded");
+        }
+
+        // Without the command map the old commands would keep the unloaded plugin alive
+        if (null == commandMap) {
+            throw new IllegalStateException("Plugins can only be reloaded by a plugin manager created with the server's CommandMap");
+        }
+
+        // Dependents have linked against the plugin's classes, so they are reloaded with it
+        List<Plugin> reloading = reloadDependents(plugin);
+        List<File> files = new ArrayList<File>(reloading.size());
+        Set<String> enabled = new HashSet<String>();
+
+        for (Plugin current : reloading) {
+            files.add(pluginFiles.get(current));
+            if (current.isEnabled()) {
+                enabled.add(current.getDescription().getName());
+            }
+        }
+
+        // Unloaded in reverse load order, so dependents go before their dependencies
+        for (int i = reloading.size() - 1; i >= 0; i--) {
+            unloadPlugin(reloading.get(i));
+        }
+
+        // A failure of the plugin itself is thrown once its dependents have been loaded again
+        Exception failure = null;
+        File directory = file.getParentFile();
+        PluginSorter pluginSorter = new PluginSorter(directory);
+        for (File current : files) {
+            updatePlugin(current);
+
+            try {
+                pluginSorter.addPlugin(pluginLoader(current).getPluginDescription(current), current);
+            } catch (InvalidPluginException ex) {
+                if (current.equals(file)) {
+                    failure = ex;
+                }
+                server.getLogger().log(Level.SEVERE, "Could not load '" + current.getPath() + "' in folder '" + directory.getPath() + "': ", ex.getCause());
+            } catch (InvalidDescriptionException ex) {
+                if (current.equals(file)) {
+                    failure = ex;
+                }
+                server.getLogger().log(Level.SEVERE, "Could not load '" + current.getPath() + "' in folder '" + directory.getPath() + "': " + ex.getMessage(), ex);
+            }
+        }
+
+        PluginNode[] ordered;
+        try {
+            ordered = pluginSorter.orderedPlugins();
+        } catch (CyclicDependencyException ex) {
+            server.getLogger().log(Level.SEVERE, "Could not reload plugins in folder '" + directory.getPath() + "': " + ex.getMessage(), ex);
+            return null;
+        }
+
+        Plugin result = null;
+        for (PluginNode pluginVertex : ordered) {
+            boolean target = pluginVertex.getFile().equals(file);
+            Plugin loaded;
+
+            try {
+                loaded = loadPlugin(pluginVertex.getFile(), false);
+            } catch (InvalidPluginException ex) {
+                server.getLogger().log(Level.SEVERE, "Failed to load plugin '" + pluginVertex.getName() + "' from '" + pluginVertex.getFile().getPath() + "' in folder '" + directory.getPath() + "': ", ex.getCause());
+                failure = target ? ex : failure;
+                continue;
+            } catch (InvalidDescriptionException ex) {
+                server.getLogger().log(Level.SEVERE, "Failed to load plugin '" + pluginVertex.getName() + "' from '" + pluginVertex.getFile().getPath() + "' in folder '" + directory.getPath() + "': " + ex.getMessage(), ex);
+                failure = target ? ex : failure;
+                continue;
+            } catch (UnknownDependencyException ex) {
+                server.getLogger().log(Level.SEVERE, "Failed to load plugin '" + pluginVertex.getName() + "' from '" + pluginVertex.getFile().getPath() + "' in folder '" + directory.getPath() + "': " + ex.getMessage(), ex);
+                failure = target ? ex : failure;
+                continue;
+            }
+
+            if (null == loaded) {
+                continue;
+            }
+            if (target) {
+                result = loaded;
+            }
+
+            commandMap.registerAll(loaded.getDescription().getName(), PluginCommandYamlParser.parse(loaded));
+            if (enabled.contains(loaded.getDescription().getName())) {
+                enablePlugin(loaded);
+            }
+        }
+
+        if (failure instanceof InvalidPluginException) {
+            throw (InvalidPluginException) failure;
+        } else if (failure instanceof InvalidDescriptionException) {
+            throw (InvalidDescriptionException) failure;
+        } else if (failure instanceof UnknownDependencyException) {
+            throw (UnknownDependencyException) failure;
         }
 
         return result;
     }
 
+    /**
+     * Gets a plugin and every plugin which depends or soft depends on it,
+     * directly or indirectly, in load order
+     *
+     * @param plugin Plugin to find the dependents of
+     * @return The plugin and its dependents
+     */
+    private List<Plugin> reloadDependents(Plugin plugin) {
+        Set<String> names = new HashSet<String>();
+        boolean changed = true;
+
+        names.add(plugin.getDescription().getName());
+        while (changed) {
+            changed = false;
+
+            for (Plugin potentialDependent : plugins) {
+                PluginDescriptionFile description = potentialDependent.getDescription();
+
+                if (names.contains(description.getName())) {
+                    continue;
+                }
+
+                for (String name : names) {
+                    if (description.getDepend().contains(name) || description.getSoftDepend().contains(name)) {
+                        names.add(description.getName());
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+        }
+
+        List<Plugin> result = new ArrayList<Plugin>(names.size());
+        for (Plugin current : plugins) {
+            if (names.contains(current.getDescription().getName())) {
+                result.add(current);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Disables a plugin, removes everything it registered and releases its resources
+     *
+     * @param plugin Plugin to unload
+     */
+    private void unloadPlugin(Plugin plugin) {
+        disablePlugin(plugin, false);
+
+        // Also done for plugins which were already disabled
+        server.getScheduler().cancelTasks(plugin);
+        server.getServicesManager().unregisterAll(plugin);
+        removeEventListeners(plugin);
+        if (null != commandMap) {
+            commandMap.unregisterAll(plugin);
+        }
+
+        try {
+            plugin.getPluginLoader().unloadPlugin(plugin);
+        } catch (Throwable ex) {
+            server.getLogger().log(Level.SEVERE, "Error occurred (in the plugin loader) while unloading " + plugin.getDescription().getFullName() + ": " + ex.getMessage(), ex);
+        }
+        leakDetector.track(plugin, plugin.getClass().getClassLoader());
+
+        plugins.remove(plugin);
+        lookupNames.remove(plugin.getDescription().getName());
+        pluginFiles.remove(plugin);
+    }
+
     /**
      * Checks if the given plugin is loaded and returns it when applicable
      *
@@ -327,6 +667,7 @@ public final class SimplePluginManager implements PluginManager {
             // Forced disable
             server.getScheduler().cancelTasks(plugin);
             server.getServicesManager().unregisterAll(plugin);
+            removeEventListeners(plugin);
         }
     }
 
@@ -335,7 +676,7 @@ public final class SimplePluginManager implements PluginManager {
         List<Plugin> dependents = new ArrayList<Plugin>();
         for (Plugin potentialDependent : plugins) {
             if (potentialDependent.getDescription().getDepend().contains(pluginName)) {
-                dependents.add(plugin);
+                dependents.add(potentialDependent);
             }
         }
 
@@ -345,9 +686,16 @@ public final class SimplePluginManager implements PluginManager {
     public void clearPlugins() {
         synchronized (this) {
             disablePlugins();
+
+            Plugin[] loaded = getPlugins();
+            for (int i = loaded.length - 1; i >= 0; i--) {
+                unloadPlugin(loaded[i]);
+            }
+
             plugins.clear();
             lookupNames.clear();
-            listeners.clear();
+            pluginFiles.clear();
+            clearListeners();
             fileAssociations.clear();
         }
     }
@@ -358,34 +706,95 @@ public final class SimplePluginManager implements PluginManager {
      * @param type Type of player related event to call
      * @param event Event details
      */
-    public synchronized void callEvent(Event event) {
-        SortedSet<RegisteredListener> eventListeners = listeners.get(event.getType());
+    public void callEvent(Event event) {
+        // Lock free, the array for a type is never modified once published
+        RegisteredListener[] eventListeners = listeners.get(event.getType().ordinal());
 
         if (eventListeners != null) {
+            boolean timed = useTimings;
+
             for (RegisteredListener registration : eventListeners) {
-                try {
-                    registration.callEvent(event);
-                } catch (AuthorNagException ex) {
-                    Plugin plugin = registration.getPlugin();
+                callListener(registration, event, timed);
+            }
+        }
+    }
+
+    public <T extends Event> Future<T> callEventAsync(final T event) {
+        return asyncEventExecutor.submit(new Callable<T>() {
+            public T call() throws Exception {
+                RegisteredListener[] eventListeners = listeners.get(event.getType().ordinal());
 
-                    if (plugin.isNaggable()) {
-                        plugin.setNaggable(false);
+                if (eventListeners == null) {
+                    return event;
+                }
+
+                final boolean timed = useTimings;
 
-                        String author = "<NoAuthorGiven>";
+                for (final RegisteredListener registration : eventListeners) {
+                    if (Thread.interrupted()) {
+                        // The Future was cancelled, don't call the remaining listeners
+                        throw new InterruptedException();
+                    }
 
-                        if (plugin.getDescription().getAuthors().size() > 0) {
-                            author = plugin.getDescription().getAuthors().get(0);
+                    if (registration.isAsync()) {
+                        callListener(registration, event, timed);
+                    } else {
+                        // Wait for the main thread so listeners are still called one at a time in priority order
+                        try {
+                            server.getScheduler().callSyncMethod(registration.getPlugin(), new Callable<Object>() {
+                                public Object call() {
+                                    callListener(registration, event, timed);
+                                    return null;
+                                }
+                            }).get();
+                        } catch (CancellationException ex) {
+                            // The listener's plugin was disabled before the main thread got to it
+                        } catch (ExecutionException ex) {
+                            server.getLogger().log(Level.SEVERE, "Could not pass event " + event.getType() + " to " + registration.getPlugin().getDescription().getName(), ex.getCause());
                         }
-                        server.getLogger().log(Level.SEVERE, String.format(
-                            "Nag author: '%s' of '%s' about the following: %s",
-                            author,
-                            plugin.getDescription().getName(),
-                            ex.getMessage()
-                        ));
                     }
-                } catch (Throwable ex) {
-                    server.getLogger().log(Level.SEVERE, "Could not pass event " + event.getType() + " to " + registration.getPlugin().getDescription().getName(), ex);
                 }
+
+                return event;
+            }
+        });
+    }
+
+    /**
+     * Calls a single listener, logging any errors it throws
+     *
+     * @param registration Listener to call
+     * @param event Event details
+     * @param timed true if the call should be added to the listener's timings
+     */
+    private void callListener(RegisteredListener registration, Event event, boolean timed) {
+        long start = timed ? System.nanoTime() : 0;
+
+        try {
+            registration.callEvent(event);
+        } catch (AuthorNagException ex) {
+            Plugin plugin = registration.getPlugin();
+
+            if (plugin.isNaggable()) {
+                plugin.setNaggable(false);
+
+                String author = "<NoAuthorGiven>";
+
+                if (plugin.getDescription().getAuthors().size() > 0) {
+                    author = plugin.getDescription().getAuthors().get(0);
+                }
+                server.getLogger().log(Level.SEVERE, String.format(
+                    "Nag author: '%s' of '%s' about the following: %s",
+                    author,
+                    plugin.getDescription().getName(),
+                    ex.getMessage()
+                ));
+            }
+        } catch (Throwable ex) {
+            server.getLogger().log(Level.SEVERE, "Could not pass event " + event.getType() + " to " + registration.getPlugin().getDescription().getName(), ex);
+        } finally {
+            if (timed) {
+                registration.addTiming(System.nanoTime() - start);
             }
         }
     }
@@ -403,7 +812,24 @@ public final class SimplePluginManager implements PluginManager {
             throw new IllegalPluginAccessException("Plugin attempted to register " + type + " while not enabled");
         }
 
-        getEventListeners(type).add(new RegisteredListener(listener, priority, plugin, type));
+        addEventListener(type, new RegisteredListener(listener, priority, plugin, type));
+    }
+
+    /**
+     * Registers the given event to the specified listener, which is safe to be
+     * called from threads other than the main thread
+     *
+     * @param type EventType to register
+     * @param listener Listener to register
+     * @param priority Priority of this event
+     * @param plugin Plugin to register
+     */
+    public void registerAsyncEvent(Event.Type type, Listener listener, Priority priority, Plugin plugin) {
+        if (!plugin.isEnabled()) {
+            throw new IllegalPluginAccessException("Plugin attempted to register " + type + " while not enabled");
+        }
+
+        addEventListener(type, new RegisteredListener(listener, priority, plugin, type, true));
     }
 
     /**
@@ -420,44 +846,136 @@ public final class SimplePluginManager implements PluginManager {
             throw new IllegalPluginAccessException("Plugin attempted to register " + type + " while not enabled");
         }
 
-        getEventListeners(type).add(new RegisteredListener(listener, executor, priority, plugin));
+        addEventListener(type, new RegisteredListener(listener, executor, priority, plugin));
     }
 
     /**
-     * Returns a SortedSet of RegisteredListener for the specified event type creating a new queue if needed
+     * Adds a RegisteredListener for the specified event type
      *
-     * @param type EventType to lookup
-     * @return SortedSet<RegisteredListener> the looked up or create queue matching the requested type
+     * The listeners for a type are held in an array ordered by priority, which is
+     * replaced rather than modified so callEvent can iterate it without locking.
+     * Listeners of equal priority are called in the order they were registered.
+     *
+     * @param type EventType to add the listener to
+     * @param registration RegisteredListener to add
      */
-    private SortedSet<RegisteredListener> getEventListeners(Event.Type type) {
-        SortedSet<RegisteredListener> eventListeners = listeners.get(type);
+    private void addEventListener(Event.Type type, RegisteredListener registration) {
+        synchronized (listenersLock) {
+            int index = type.ordinal();
+            RegisteredListener[] current = listeners.get(index);
+
+            if (current == null) {
+                listeners.set(index, new RegisteredListener[] { registration });
+                return;
+            }
 
-        if (eventListeners != null) {
-            return eventListeners;
+            // Insert after all listeners of a lower or equal priority
+            int insert = current.length;
+            while (insert > 0 && current[insert - 1].getPriority().compareTo(registration.getPriority()) > 0) {
+                insert--;
+            }
+
+            RegisteredListener[] updated = new RegisteredListener[current.length + 1];
+            System.arraycopy(current, 0, updated, 0, insert);
+            updated[insert] = registration;
+            System.arraycopy(current, insert, updated, insert + 1, current.length - insert);
+            listeners.set(index, updated);
+        }
+    }
+
+    public boolean hasListeners(Event.Type type) {
+        return listeners.get(type.ordinal()) != null;
+    }
+
+    public RegisteredListener[] getRegisteredListeners(Event.Type type) {
+        RegisteredListener[] eventListeners = listeners.get(type.ordinal());
+
+        if (eventListeners == null) {
+            return new RegisteredListener[0];
         }
 
-        eventListeners = new TreeSet<RegisteredListener>(comparer);
-        listeners.put(type, eventListeners);
-        return eventListeners;
+        return eventListeners.clone();
+    }
+
+    public boolean useTimings() {
+        return useTimings;
+    }
+
+    public void setUseTimings(boolean use) {
+        useTimings = use;
+    }
+
+    public void resetTimings() {
+        for (int i = 0; i < listeners.length(); i++) {
+            RegisteredListener[] eventListeners = listeners.get(i);
+
+            if (eventListeners != null) {
+                for (RegisteredListener registration : eventListeners) {
+                    registration.resetTimings();
+                }
+            }
+        }
+    }
+
+    public PluginLeakDetector getLeakDetector() {
+        return leakDetector;
+    }
+
+    /**
+     * Removes all RegisteredListeners belonging to the specified plugin
+     *
+     * @param plugin Plugin to remove the listeners of
+     */
+    private void removeEventListeners(Plugin plugin) {
+        synchronized (listenersLock) {
+            for (int i = 0; i < listeners.length(); i++) {
+                RegisteredListener[] current = listeners.get(i);
+
+                if (current == null) {
+                    continue;
+                }
+
+                List<RegisteredListener> remaining = new ArrayList<RegisteredListener>(current.length);
+                for (RegisteredListener registration : current) {
+                    if (registration.getPlugin() != plugin) {
+                        remaining.add(registration);
+                    }
+                }
+
+                if (remaining.size() != current.length) {
+                    // Types without listeners are left null so hasListeners stays a single read
+                    listeners.set(i, remaining.isEmpty() ? null : remaining.toArray(new RegisteredListener[remaining.size()]));
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes all RegisteredListeners for every event type
+     */
+    private void clearListeners() {
+        synchronized (listenersLock) {
+            for (int i = 0; i < listeners.length(); i++) {
+                listeners.set(i, null);
+            }
+        }
     }
 
     private class PluginNode {
         private final PluginDescriptionFile description;
         private final File file;
-        private final int initialIndex;
 
-        public PluginNode(PluginDescriptionFile description, File file, int initialIndex) {
+        public PluginNode(PluginDescriptionFile description, File file) {
             this.description = description;
             this.file = file;
-            this.initialIndex = initialIndex;
         }
 
         public File getFile() {
             return file;
         }
 
-        public int getInitialIndex() {
-            return initialIndex;
+        public PluginDescriptionFile getDescription() {
+            return description;
         }
 
         public List<String> getDepend() {
@@ -477,126 +995,235 @@ public final class SimplePluginManager implements PluginManager {
         }
     }
 
+    /**
+     * Resolves the load order of plugins from their dependencies
+     *
+     * The dependency graph is held as adjacency lists and sorted with Kahn's
+     * algorithm, one layer at a time. Every plugin in a layer only depends on
+     * plugins in earlier layers, and plugins within a layer keep the order they
+     * were added in, so the resulting order is reproducible.
+     */
     private class PluginSorter {
-        private ArrayList<PluginNode> pluginList;
-        private HashMap<String,PluginNode> pluginHash;
-        private PluginNode sortedPlugins[];
-        private int matrix[][];
-        private int numPlugins;
+        private final List<PluginNode> pluginList = new ArrayList<PluginNode>();
+        private final Map<String, PluginNode> pluginHash = new HashMap<String, PluginNode>();
         private final File directory;
+        private List<List<PluginNode>> layers = null;
 
         public PluginSorter(File directory) {
             this.directory = directory;
-            pluginList = new ArrayList<PluginNode>();
-            pluginHash = new HashMap<String,PluginNode>();
         }
 
         public PluginNode addPlugin(PluginDescriptionFile description, File file) {
-            PluginNode plugin = new PluginNode(description, file, pluginList.size());
+            PluginNode plugin = new PluginNode(description, file);
             pluginList.add(plugin);
             pluginHash.put(plugin.getName(), plugin);
+            layers = null;
             return plugin;
         }
 
+        /**
+         * Gets the plugins in the order they should be loaded
+         *
+         * @return Plugins in dependency order
+         * @throws CyclicDependencyException Thrown when plugins depend on each other
+         */
         public PluginNode[] orderedPlugins() throws CyclicDependencyException {
-            addDependencies();
+            List<PluginNode> ordered = new ArrayList<PluginNode>(pluginList.size());
 
-            while (numPlugins > 0) {
-                int currentPlugin = noSuccessors();
-                if (-1 == currentPlugin) {
-                    throw new CyclicDependencyException();
-                }
-                sortedPlugins[numPlugins - 1] = pluginList.get(currentPlugin);
-                deletePlugin(currentPlugin);
+            for (List<PluginNode> layer : getLayers()) {
+                ordered.addAll(layer);
             }
 
-            return sortedPlugins;
+            return ordered.toArray(new PluginNode[ordered.size()]);
         }
 
-        private void addDependencies() {
-            // Initialise our Topological sorting matrix
-            numPlugins = pluginList.size();
-            sortedPlugins = new PluginNode[numPlugins];
-            matrix = new int[numPlugins][numPlugins];
-            for (int i = 0; i < numPlugins; i++) {
-                for (int k = 0; k < numPlugins; k++) {
-                    matrix[i][k] = 0;
-                }
+        /**
+         * Gets the plugins grouped into layers, where every plugin only depends on
+         * plugins in earlier layers. Plugins within a layer may be loaded in parallel
+         *
+         * @return Layers of plugins, in load order
+         * @throws CyclicDependencyException Thrown when plugins depend on each other
+         */
+        public List<List<PluginNode>> getLayers() throws CyclicDependencyException {
+            if (layers == null) {
+                layers = resolve();
             }
 
+            return layers;
+        }
+
+        private List<List<PluginNode>> resolve() throws CyclicDependencyException {
             // Remove plugins with missing hard dependencies
-            for (PluginNode plugin: pluginList) {
+            List<PluginNode> nodes = new ArrayList<PluginNode>(pluginList.size());
+            for (PluginNode plugin : pluginList) {
+                boolean missing = false;
+
                 for (String dependencyName : plugin.getDepend()) {
-                    PluginNode dependency = pluginHash.get(dependencyName);
-                    if (null == dependency) {
+                    if (!pluginHash.containsKey(dependencyName) && null == getPlugin(dependencyName)) {
                         // Missing dependency, cant load this plugin so remove it
                         server.getLogger().log(Level.SEVERE, "Could not load '" + plugin.getFile().getPath() + "' in folder '" + directory.getPath() + "': Missing dependency '" + dependencyName + "'");
-                        pluginList.remove(plugin.getInitialIndex());
+                        missing = true;
                     }
                 }
+
+                if (!missing) {
+                    nodes.add(plugin);
+                }
+            }
+
+            Map<PluginNode, Integer> indexes = new IdentityHashMap<PluginNode, Integer>();
+            for (int i = 0; i < nodes.size(); i++) {
+                indexes.put(nodes.get(i), i);
             }
 
-            // Add all dependencies
-            for (PluginNode plugin: pluginList) {
+            // Edges go from each dependency to the plugins which depend on it
+            List<List<Integer>> dependents = new ArrayList<List<Integer>>(nodes.size());
+            int[] inDegree = new int[nodes.size()];
+            for (int i = 0; i < nodes.size(); i++) {
+                dependents.add(new ArrayList<Integer>());
+            }
+
+            for (int i = 0; i < nodes.size(); i++) {
+                PluginNode plugin = nodes.get(i);
+                Set<Integer> dependencies = new HashSet<Integer>();
+
                 // Hard Dependencies
-                int idx = plugin.getInitialIndex();
-                for (String dependencyName : plugin.getDepend()) {
-                    matrix[pluginHash.get(dependencyName).getInitialIndex()][idx] = 1;
-                }
+                addDependencies(plugin.getDepend(), indexes, dependencies);
                 // Soft Dependencies
-                for (String dependencyName : plugin.getSoftDepend()) {
-                    PluginNode dependency = pluginHash.get(dependencyName);
-                    if (null != dependency) {
-                        // Dependency was found add it
-                        matrix[dependency.getInitialIndex()][idx] = 1;
-                    }
+                addDependencies(plugin.getSoftDepend(), indexes, dependencies);
+
+                for (Integer dependency : dependencies) {
+                    dependents.get(dependency).add(i);
+                    inDegree[i]++;
                 }
             }
-        }
 
-        private int noSuccessors() {
-            boolean isEdge;
-            for (int row = 0; row < numPlugins; row++) {
-                isEdge = false;
-                for (int col = 0; col < numPlugins; col++) {
-                    if (0 < matrix[row][col]) {
-                        isEdge = true;
-                        break;
-                    }
+            List<List<PluginNode>> result = new ArrayList<List<PluginNode>>();
+            List<Integer> current = new ArrayList<Integer>();
+            int resolved = 0;
+
+            for (int i = 0; i < nodes.size(); i++) {
+                if (inDegree[i] == 0) {
+                    current.add(i);
                 }
-                if (!isEdge) {
-                    return row;
+            }
+
+            while (!current.isEmpty()) {
+                List<PluginNode> layer = new ArrayList<PluginNode>(current.size());
+                List<Integer> next = new ArrayList<Integer>();
+
+                for (int i : current) {
+                    layer.add(nodes.get(i));
+
+                    for (int dependent : dependents.get(i)) {
+                        if (--inDegree[dependent] == 0) {
+                            next.add(dependent);
+                        }
+                    }
                 }
+
+                result.add(layer);
+                resolved += current.size();
+                Collections.sort(next);
+                current = next;
+            }
+
+            if (resolved < nodes.size()) {
+                throw new CyclicDependencyException("Cyclic dependency between plugins: " + findCycles(nodes, dependents, inDegree));
             }
-            return -1; // cycle detected
+
+            return result;
         }
 
-        private void deletePlugin(int delPlugin) {
-            if (delPlugin != numPlugins - 1) {
-                for (int j = delPlugin; j < numPlugins - 1; j++) {
-                    pluginList.set(j, pluginList.get(j + 1));
-                }
+        private void addDependencies(List<String> dependencyNames, Map<PluginNode, Integer> indexes, Set<Integer> dependencies) {
+            for (String dependencyName : dependencyNames) {
+                PluginNode dependency = pluginHash.get(dependencyName);
+                Integer index = (dependency == null) ? null : indexes.get(dependency);
 
-                for (int row = delPlugin; row < numPlugins - 1; row++) {
-                    moveRowUp(row, numPlugins);
+                if (index != null) {
+                    dependencies.add(index);
                 }
+            }
+        }
 
-                for (int col = delPlugin; col < numPlugins - 1; col++) {
-                    moveColLeft(col, numPlugins - 1);
+        /**
+         * Finds the plugins which form cycles among the plugins left unresolved,
+         * using Tarjan's strongly connected components algorithm
+         *
+         * @param nodes All plugins being sorted
+         * @param dependents Plugins which depend on each plugin
+         * @param inDegree Unresolved dependency count of each plugin
+         * @return Members of each cycle
+         */
+        private List<List<PluginNode>> findCycles(List<PluginNode> nodes, List<List<Integer>> dependents, int[] inDegree) {
+            CycleFinder finder = new CycleFinder(nodes, dependents, inDegree);
+
+            for (int i = 0; i < nodes.size(); i++) {
+                if (inDegree[i] > 0 && finder.index[i] == -1) {
+                    finder.connect(i);
                 }
             }
-            numPlugins--;
+
+            return finder.cycles;
         }
+    }
 
-        private void moveRowUp(int row, int length) {
-            for (int col = 0; col < length; col++) {
-                matrix[row][col] = matrix[row + 1][col];
-            }
+    private static class CycleFinder {
+        private final List<PluginNode> nodes;
+        private final List<List<Integer>> dependents;
+        private final int[] inDegree;
+        private final int[] index;
+        private final int[] lowLink;
+        private final boolean[] onStack;
+        private final LinkedList<Integer> stack = new LinkedList<Integer>();
+        private final List<List<PluginNode>> cycles = new ArrayList<List<PluginNode>>();
+        private int nextIndex = 0;
+
+        public CycleFinder(List<PluginNode> nodes, List<List<Integer>> dependents, int[] inDegree) {
+            this.nodes = nodes;
+            this.dependents = dependents;
+            this.inDegree = inDegree;
+            this.index = new int[nodes.size()];
+            this.lowLink = new int[nodes.size()];
+            this.onStack = new boolean[nodes.size()];
+            Arrays.fill(index, -1);
         }
 
-        private void moveColLeft(int col, int length) {
-            for (int row = 0; row < length; row++) {
-                matrix[row][col] = matrix[row][col + 1];
+        public void connect(int node) {
+            index[node] = nextIndex;
+            lowLink[node] = nextIndex;
+            nextIndex++;
+            stack.addFirst(node);
+            onStack[node] = true;
+
+            for (int dependent : dependents.get(node)) {
+                if (inDegree[dependent] == 0) {
+                    continue; // Resolved, so can't be part of a cycle
+                }
+
+                if (index[dependent] == -1) {
+                    connect(dependent);
+                    lowLink[node] = Math.min(lowLink[node], lowLink[dependent]);
+                } else if (onStack[dependent]) {
+                    lowLink[node] = Math.min(lowLink[node], index[dependent]);
+                }
+            }
+
+            if (lowLink[node] == index[node]) {
+                List<PluginNode> component = new ArrayList<PluginNode>();
+                int member;
+
+                do {
+                    member = stack.removeFirst();
+                    onStack[member] = false;
+                    component.add(nodes.get(member));
+                } while (member != node);
+
+                // Plugins which only depend on a cycle form components of their own
+                if (component.size() > 1 || dependents.get(node).contains(node)) {
+                    Collections.reverse(component);
+                    cycles.add(component);
+                }
             }
         }
     }
@@ -1,25 +1,88 @@
 package org.bukkit.plugin;
 
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.NoSuchElementException;
+import java.util.Map;
+import java.util.Queue;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+import org.bukkit.event.Event;
+import org.bukkit.event.server.ServiceRegisterEvent;
+import org.bukkit.event.server.ServiceUnregisterEvent;
 
 /**
  * A simple services manager.
  *
+ * The providers of each service are kept in an array sorted by priority which
+ * is never modified once published. Lookups read the current array without
+ * locking, registering or unregistering replaces it with a new copy.
+ *
  * @author sk89q
  */
 public class SimpleServicesManager implements ServicesManager {
 
     /**
-     * Map of providers.
+     * Map of providers, sorted by priority.
+     */
+    private final ConcurrentMap<Class<?>, RegisteredServiceProvider<?>[]> providers = new ConcurrentHashMap<Class<?>, RegisteredServiceProvider<?>[]>();
+
+    /**
+     * Handles given out for each service, weak so they don't keep the
+     * service classes of unloaded plugins alive.
+     */
+    private final Map<Class<?>, WeakReference<ServiceHandle<?>>> handles = new WeakHashMap<Class<?>, WeakReference<ServiceHandle<?>>>();
+
+    /**
+     * Registrations of each plugin and each provider instance, so removing
+     * them only visits their own registrations.
      */
-    private final Map<Class<?>, List<RegisteredServiceProvider<?>>> providers = new HashMap<Class<?>, List<RegisteredServiceProvider<?>>>();
+    private final Map<Plugin, List<RegisteredServiceProvider<?>>> pluginRegistrations = new IdentityHashMap<Plugin, List<RegisteredServiceProvider<?>>>();
+    private final Map<Object, List<RegisteredServiceProvider<?>>> providerRegistrations = new IdentityHashMap<Object, List<RegisteredServiceProvider<?>>>();
+
+    /**
+     * Held while changing the providers.
+     */
+    private final Object writeLock = new Object();
+
+    /**
+     * Service events waiting to be called, queued while holding the write
+     * lock so they are in the same order as the changes.
+     */
+    private final Queue<Event> events = new ConcurrentLinkedQueue<Event>();
+
+    /**
+     * Held while calling service events, so events queued by different
+     * threads are never called out of order.
+     */
+    private final Object eventLock = new Object();
+
+    /**
+     * Plugin manager to call service events with, or null.
+     */
+    private final PluginManager pluginManager;
+
+    public SimpleServicesManager() {
+        this(null);
+    }
+
+    /**
+     * Creates a services manager which calls SERVICE_REGISTER and
+     * SERVICE_UNREGISTER events when providers change.
+     *
+     * @param pluginManager plugin manager to call the events with
+     */
+    public SimpleServicesManager(PluginManager pluginManager) {
+        this.pluginManager = pluginManager;
+    }
 
     /**
      * Register a provider of a service.
@@ -33,20 +96,36 @@ public class SimpleServicesManager implements ServicesManager {
     public <T> void register(Class<T> service, T provider,
             Plugin plugin, ServicePriority priority) {
 
-        synchronized (providers) {
-            List<RegisteredServiceProvider<?>> registered = providers.get(service);
+        RegisteredServiceProvider<T> registration = new RegisteredServiceProvider<T>(service, provider, priority, plugin);
+
+        synchronized (writeLock) {
+            RegisteredServiceProvider<?>[] registered = providers.get(service);
+            RegisteredServiceProvider<?>[] updated;
 
             if (registered == null) {
-                registered = new ArrayList<RegisteredServiceProvider<?>>();
-                providers.put(service, registered);
+                updated = new RegisteredServiceProvider<?>[1];
+            } else {
+                updated = new RegisteredServiceProvider<?>[registered.length + 1];
+                System.arraycopy(registered, 0, updated, 0, registered.length);
             }
 
-            registered.add(new RegisteredServiceProvider<T>(service, provider, priority, plugin));
+            updated[updated.length - 1] = registration;
 
             // Make sure that providers are in the right order in order
-            // for priorities to work correctly
-            Collections.sort(registered);
+            // for priorities to work correctly, the sort keeps providers
+            // of the same priority in the order they were registered
+            Arrays.sort(updated);
+
+            publish(service, updated);
+            index(pluginRegistrations, plugin, registration);
+            index(providerRegistrations, provider, registration);
+
+            if (pluginManager != null && pluginManager.hasListeners(Event.Type.SERVICE_REGISTER)) {
+                events.add(new ServiceRegisterEvent(registration));
+            }
         }
+
+        callEvents();
     }
 
     /**
@@ -55,32 +134,19 @@ public class SimpleServicesManager implements ServicesManager {
      * @param plugin
      */
     public void unregisterAll(Plugin plugin) {
-        synchronized (providers) {
-            Iterator<Map.Entry<Class<?>, List<RegisteredServiceProvider<?>>>> it = providers.entrySet().iterator();
-
-            try {
-                while (it.hasNext()) {
-                    Map.Entry<Class<?>, List<RegisteredServiceProvider<?>>> entry = it.next();
-                    Iterator<RegisteredServiceProvider<?>> it2 = entry.getValue().iterator();
-
-                    try {
-                        // Removed entries that are from this plugin
-
-                        while (it2.hasNext()) {
-                            if (it2.next().getPlugin() == plugin) {
-                                it2.remove();
-                            }
-                        }
-                    } catch (NoSuchElementException e) { // Why does Java suck
-                    }
-
-                    // Get rid of the empty list
-                    if (entry.getValue().size() == 0) {
-                        it.remove();
-                    }
-                }
-            } catch (NoSuchElementException e) {}
+        List<RegisteredServiceProvider<?>> removed;
+
+        synchronized (writeLock) {
+            List<RegisteredServiceProvider<?>> registrations = pluginRegistrations.get(plugin);
+            if (registrations == null) {
+                return;
+            }
+
+            removed = new ArrayList<RegisteredServiceProvider<?>>(registrations);
+            remove(removed);
         }
+
+        callEvents();
     }
 
     /**
@@ -90,38 +156,25 @@ public class SimpleServicesManager implements ServicesManager {
      * @param provider
      */
     public void unregister(Class<?> service, Object provider) {
-        synchronized (providers) {
-            Iterator<Map.Entry<Class<?>, List<RegisteredServiceProvider<?>>>> it = providers.entrySet().iterator();
-
-            try {
-                while (it.hasNext()) {
-                    Map.Entry<Class<?>, List<RegisteredServiceProvider<?>>> entry = it.next();
-
-                    // We want a particular service
-                    if (entry.getKey() != service) {
-                        continue;
-                    }
-
-                    Iterator<RegisteredServiceProvider<?>> it2 = entry.getValue().iterator();
-
-                    try {
-                        // Removed entries that are from this plugin
-
-                        while (it2.hasNext()) {
-                            if (it2.next().getProvider() == provider) {
-                                it2.remove();
-                            }
-                        }
-                    } catch (NoSuchElementException e) { // Why does Java suck
-                    }
-
-                    // Get rid of the empty list
-                    if (entry.getValue().size() == 0) {
-                        it.remove();
-                    }
+        List<RegisteredServiceProvider<?>> removed = new ArrayList<RegisteredServiceProvider<?>>();
+
+        synchronized (writeLock) {
+            List<RegisteredServiceProvider<?>> registrations = providerRegistrations.get(provider);
+            if (registrations == null) {
+                return;
+            }
+
+            // We want a particular service
+            for (RegisteredServiceProvider<?> registration : registrations) {
+                if (registration.getService() == service) {
+                    removed.add(registration);
                 }
-            } catch (NoSuchElementException e) {}
+            }
+
+            remove(removed);
         }
+
+        callEvents();
     }
 
     /**
@@ -130,31 +183,166 @@ public class SimpleServicesManager implements ServicesManager {
      * @param provider
      */
     public void unregister(Object provider) {
-        synchronized (providers) {
-            Iterator<Map.Entry<Class<?>, List<RegisteredServiceProvider<?>>>> it = providers.entrySet().iterator();
-
-            try {
-                while (it.hasNext()) {
-                    Map.Entry<Class<?>, List<RegisteredServiceProvider<?>>> entry = it.next();
-                    Iterator<RegisteredServiceProvider<?>> it2 = entry.getValue().iterator();
-
-                    try {
-                        // Removed entries that are from this plugin
-
-                        while (it2.hasNext()) {
-                            if (it2.next().getProvider() == provider) {
-                                it2.remove();
-                            }
-                        }
-                    } catch (NoSuchElementException e) { // Why does Java suck
-                    }
-
-                    // Get rid of the empty list
-                    if (entry.getValue().size() == 0) {
-                        it.remove();
-                    }
+        List<RegisteredServiceProvider<?>> removed;
+
+        synchronized (writeLock) {
+            List<RegisteredServiceProvider<?>> registrations = providerRegistrations.get(provider);
+            if (registrations == null) {
+                return;
+            }
+
+            removed = new ArrayList<RegisteredServiceProvider<?>>(registrations);
+            remove(removed);
+        }
+
+        callEvents();
+    }
+
+    /**
+     * Adds a registration to an index. Must be called while holding the write lock.
+     *
+     * @param index index to add to
+     * @param key plugin or provider of the registration
+     * @param registration registration to add
+     */
+    private <K> void index(Map<K, List<RegisteredServiceProvider<?>>> index, K key, RegisteredServiceProvider<?> registration) {
+        List<RegisteredServiceProvider<?>> registrations = index.get(key);
+
+        if (registrations == null) {
+            registrations = new ArrayList<RegisteredServiceProvider<?>>(1);
+            index.put(key, registrations);
+        }
+
+        registrations.add(registration);
+    }
+
+    /**
+     * Removes a registration from an index. Must be called while holding the write lock.
+     *
+     * @param index index to remove from
+     * @param key plugin or provider of the registration
+     * @param registration registration to remove
+     */
+    private <K> void unindex(Map<K, List<RegisteredServiceProvider<?>>> index, K key, RegisteredServiceProvider<?> registration) {
+        List<RegisteredServiceProvider<?>> registrations = index.get(key);
+
+        if (registrations != null) {
+            // Registrations are distinct objects, so identity is enough
+            for (int i = 0; i < registrations.size(); i++) {
+                if (registrations.get(i) == registration) {
+                    registrations.remove(i);
+                    break;
                 }
-            } catch (NoSuchElementException e) {}
+            }
+
+            if (registrations.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Removes registrations from the providers of their services and from the
+     * indexes, and queues their unregister events. Must be called while
+     * holding the write lock.
+     *
+     * @param removed registrations to remove
+     */
+    private void remove(List<RegisteredServiceProvider<?>> removed) {
+        Map<Class<?>, Map<RegisteredServiceProvider<?>, Boolean>> byService = new HashMap<Class<?>, Map<RegisteredServiceProvider<?>, Boolean>>();
+
+        for (RegisteredServiceProvider<?> registration : removed) {
+            Map<RegisteredServiceProvider<?>, Boolean> registrations = byService.get(registration.getService());
+
+            if (registrations == null) {
+                registrations = new IdentityHashMap<RegisteredServiceProvider<?>, Boolean>();
+                byService.put(registration.getService(), registrations);
+            }
+
+            registrations.put(registration, Boolean.TRUE);
+            unindex(pluginRegistrations, registration.getPlugin(), registration);
+            unindex(providerRegistrations, registration.getProvider(), registration);
+        }
+
+        for (Map.Entry<Class<?>, Map<RegisteredServiceProvider<?>, Boolean>> entry : byService.entrySet()) {
+            RegisteredServiceProvider<?>[] registered = providers.get(entry.getKey());
+
+            if (registered == null) {
+                continue;
+            }
+
+            List<RegisteredServiceProvider<?>> remaining = new ArrayList<RegisteredServiceProvider<?>>(registered.length);
+
+            for (RegisteredServiceProvider<?> registration : registered) {
+                if (!entry.getValue().containsKey(registration)) {
+                    remaining.add(registration);
+                }
+            }
+
+            update(entry.getKey(), registered, remaining);
+        }
+
+        if (pluginManager != null && pluginManager.hasListeners(Event.Type.SERVICE_UNREGISTER)) {
+            for (RegisteredServiceProvider<?> registration : removed) {
+                events.add(new ServiceUnregisterEvent(registration));
+            }
+        }
+    }
+
+    /**
+     * Calls the queued service events in the order they were queued. Must be
+     * called without holding the write lock, so listeners can change the
+     * providers. Events queued by other threads meanwhile are called by
+     * whichever thread holds the event lock, before it is released.
+     */
+    private void callEvents() {
+        if (pluginManager == null) {
+            return;
+        }
+
+        synchronized (eventLock) {
+            Event event;
+
+            while ((event = events.poll()) != null) {
+                pluginManager.callEvent(event);
+            }
+        }
+    }
+
+    /**
+     * Replaces the providers of a service if any were removed.
+     *
+     * @param service service class
+     * @param registered current providers
+     * @param remaining providers left after the removal
+     */
+    private void update(Class<?> service, RegisteredServiceProvider<?>[] registered, List<RegisteredServiceProvider<?>> remaining) {
+        if (remaining.size() != registered.length) {
+            publish(service, remaining.toArray(new RegisteredServiceProvider<?>[remaining.size()]));
+        }
+    }
+
+    /**
+     * Publishes new providers of a service and updates its handle. Must be
+     * called while holding the write lock.
+     *
+     * @param service service class
+     * @param registered sorted providers, may be empty
+     */
+    @SuppressWarnings("unchecked")
+    private void publish(Class<?> service, RegisteredServiceProvider<?>[] registered) {
+        // Get rid of the empty array
+        if (registered.length == 0) {
+            providers.remove(service);
+        } else {
+            providers.put(service, registered);
+        }
+
+        WeakReference<ServiceHandle<?>> reference = handles.get(service);
+        ServiceHandle<Object> handle = reference == null ? null : (ServiceHandle<Object>) reference.get();
+
+        if (handle != null) {
+            handle.update(registered.length == 0 ? null : (RegisteredServiceProvider<Object>) registered[0]);
         }
     }
 
@@ -168,16 +356,14 @@ public class SimpleServicesManager implements ServicesManager {
      */
     @SuppressWarnings("unchecked")
     public <T> T load(Class<T> service) {
-        synchronized (providers) {
-            List<RegisteredServiceProvider<?>> registered = providers.get(service);
-
-            if (registered == null) {
-                return null;
-            }
+        RegisteredServiceProvider<?>[] registered = providers.get(service);
 
-            // This should not be null!
-            return (T) registered.get(0).getProvider();
+        if (registered == null) {
+            return null;
         }
+
+        // Published arrays are never empty
+        return (T) registered[0].getProvider();
     }
 
     /**
@@ -190,15 +376,36 @@ public class SimpleServicesManager implements ServicesManager {
      */
     @SuppressWarnings("unchecked")
     public <T> RegisteredServiceProvider<T> getRegistration(Class<T> service) {
-        synchronized (providers) {
-            List<RegisteredServiceProvider<?>> registered = providers.get(service);
+        RegisteredServiceProvider<?>[] registered = providers.get(service);
 
-            if (registered == null) {
-                return null;
+        if (registered == null) {
+            return null;
+        }
+
+        // Published arrays are never empty
+        return (RegisteredServiceProvider<T>) registered[0];
+    }
+
+    /**
+     * Gets a handle to the highest priority provider of a service, which
+     * stays up to date as providers are registered and unregistered.
+     *
+     * @param <T>
+     * @param service
+     * @return handle for the service
+     */
+    @SuppressWarnings("unchecked")
+    public <T> ServiceHandle<T> getHandle(Class<T> service) {
+        synchronized (writeLock) {
+            WeakReference<ServiceHandle<?>> reference = handles.get(service);
+            ServiceHandle<T> handle = reference == null ? null : (ServiceHandle<T>) reference.get();
+
+            if (handle == null) {
+                handle = new ServiceHandle<T>(service, getRegistration(service));
+                handles.put(service, new WeakReference<ServiceHandle<?>>(handle));
             }
 
-            // This should not be null!
-            return (RegisteredServiceProvider<T>) registered.get(0);
+            return handle;
         }
     }
 
@@ -209,18 +416,14 @@ public class SimpleServicesManager implements ServicesManager {
      * @return provider registration or null
      */
     public List<RegisteredServiceProvider<?>> getRegistrations(Plugin plugin) {
-        synchronized (providers) {
-            List<RegisteredServiceProvider<?>> ret = new ArrayList<RegisteredServiceProvider<?>>();
-
-            for (List<RegisteredServiceProvider<?>> registered : providers.values()) {
-                for (RegisteredServiceProvider<?> provider : registered) {
-                    if (provider.getPlugin() == plugin) {
-                        ret.add(provider);
-                    }
-                }
+        synchronized (writeLock) {
+            List<RegisteredServiceProvider<?>> registrations = pluginRegistrations.get(plugin);
+
+            if (registrations == null) {
+                return new ArrayList<RegisteredServiceProvider<?>>();
             }
 
-            return ret;
+            return new ArrayList<RegisteredServiceProvider<?>>(registrations);
         }
     }
 
@@ -234,21 +437,19 @@ public class SimpleServicesManager implements ServicesManager {
      */
     @SuppressWarnings("unchecked")
     public <T> Collection<RegisteredServiceProvider<T>> getRegistrations(Class<T> service) {
-        synchronized (providers) {
-            List<RegisteredServiceProvider<?>> registered = providers.get(service);
-
-            if (registered == null) {
-                return Collections.unmodifiableList(new ArrayList<RegisteredServiceProvider<T>>());
-            }
+        RegisteredServiceProvider<?>[] registered = providers.get(service);
 
-            List<RegisteredServiceProvider<T>> ret = new ArrayList<RegisteredServiceProvider<T>>();
+        if (registered == null) {
+            return Collections.unmodifiableList(new ArrayList<RegisteredServiceProvider<T>>());
+        }
 
-            for (RegisteredServiceProvider<?> provider : registered) {
-                ret.add((RegisteredServiceProvider<T>) provider);
-            }
+        List<RegisteredServiceProvider<T>> ret = new ArrayList<RegisteredServiceProvider<T>>(registered.length);
 
-            return Collections.unmodifiableList(ret);
+        for (RegisteredServiceProvider<?> provider : registered) {
+            ret.add((RegisteredServiceProvider<T>) provider);
         }
+
+        return Collections.unmodifiableList(ret);
     }
 
     /**
@@ -0,0 +1,513 @@
+package org.bukkit.plugin.java;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.bukkit.event.CustomEventListener;
+import org.bukkit.event.Event;
+import org.bukkit.event.Listener;
+import org.bukkit.event.block.*;
+import org.bukkit.event.painting.*;
+import org.bukkit.event.entity.*;
+import org.bukkit.event.player.*;
+import org.bukkit.event.server.*;
+import org.bukkit.event.vehicle.*;
+import org.bukkit.event.world.*;
+import org.bukkit.event.weather.*;
+import org.bukkit.plugin.EventExecutor;
+
+/**
+ * Creates EventExecutors for listeners by generating a small class per listener
+ * class and event type which calls the listener method directly.
+ *
+ * Each generated executor has its own call site, so the JIT sees a single
+ * receiver type and can inline the listener method. Generated classes are
+ * defined in a child of the listener's class loader and cached per loader,
+ * on the plugin's own loader for plugin listeners.
+ * Executors for plugin listeners which aren't public, such as anonymous
+ * classes, are defined in the plugin's own loader and package instead, so they
+ * can still call the listener's class directly.
+ */
+final class EventExecutorFactory {
+    private static final String EXECUTOR_NAME = "GeneratedEventExecutor$";
+    private static final AtomicInteger executorId = new AtomicInteger();
+    private final Logger logger;
+    private boolean warned = false;
+    private final Map<Event.Type, ExecutorTarget> targets = new EnumMap<Event.Type, ExecutorTarget>(Event.Type.class);
+    private final Map<ClassLoader, WeakReference<ExecutorClassLoader>> loaders = new WeakHashMap<ClassLoader, WeakReference<ExecutorClassLoader>>();
+
+    public EventExecutorFactory(Logger logger) {
+        this.logger = logger;
+
+        // Player Events
+        register(Event.Type.PLAYER_JOIN, PlayerListener.class, "onPlayerJoin", PlayerJoinEvent.class);
+        register(Event.Type.PLAYER_QUIT, PlayerListener.class, "onPlayerQuit", PlayerQuitEvent.class);
+        register(Event.Type.PLAYER_RESPAWN, PlayerListener.class, "onPlayerRespawn", PlayerRespawnEvent.class);
+        register(Event.Type.PLAYER_KICK, PlayerListener.class, "onPlayerKick", PlayerKickEvent.class);
+        register(Event.Type.PLAYER_COMMAND_PREPROCESS, PlayerListener.class, "onPlayerCommandPreprocess", PlayerCommandPreprocessEvent.class);
+        register(Event.Type.PLAYER_CHAT, PlayerListener.class, "onPlayerChat", PlayerChatEvent.class);
+        register(Event.Type.PLAYER_MOVE, PlayerListener.class, "onPlayerMove", PlayerMoveEvent.class);
+        register(Event.Type.PLAYER_TELEPORT, PlayerListener.class, "onPlayerTeleport", PlayerTeleportEvent.class);
+        register(Event.Type.PLAYER_INTERACT, PlayerListener.class, "onPlayerInteract", PlayerInteractEvent.class);
+        register(Event.Type.PLAYER_INTERACT_ENTITY, PlayerListener.class, "onPlayerInteractEntity", PlayerInteractEntityEvent.class);
+        register(Event.Type.PLAYER_LOGIN, PlayerListener.class, "onPlayerLogin", PlayerLoginEvent.class);
+        register(Event.Type.PLAYER_PRELOGIN, PlayerListener.class, "onPlayerPreLogin", PlayerPreLoginEvent.class);
+        register(Event.Type.PLAYER_EGG_THROW, PlayerListener.class, "onPlayerEggThrow", PlayerEggThrowEvent.class);
+        register(Event.Type.PLAYER_ANIMATION, PlayerListener.class, "onPlayerAnimation", PlayerAnimationEvent.class);
+        register(Event.Type.INVENTORY_OPEN, PlayerListener.class, "onInventoryOpen", PlayerInventoryEvent.class);
+        register(Event.Type.PLAYER_ITEM_HELD, PlayerListener.class, "onItemHeldChange", PlayerItemHeldEvent.class);
+        register(Event.Type.PLAYER_DROP_ITEM, PlayerListener.class, "onPlayerDropItem", PlayerDropItemEvent.class);
+        register(Event.Type.PLAYER_PICKUP_ITEM, PlayerListener.class, "onPlayerPickupItem", PlayerPickupItemEvent.class);
+        register(Event.Type.PLAYER_TOGGLE_SNEAK, PlayerListener.class, "onPlayerToggleSneak", PlayerToggleSneakEvent.class);
+        register(Event.Type.PLAYER_BUCKET_EMPTY, PlayerListener.class, "onPlayerBucketEmpty", PlayerBucketEmptyEvent.class);
+        register(Event.Type.PLAYER_BUCKET_FILL, PlayerListener.class, "onPlayerBucketFill", PlayerBucketFillEvent.class);
+        register(Event.Type.PLAYER_BED_ENTER, PlayerListener.class, "onPlayerBedEnter", PlayerBedEnterEvent.class);
+        register(Event.Type.PLAYER_BED_LEAVE, PlayerListener.class, "onPlayerBedLeave", PlayerBedLeaveEvent.class);
+
+        // Block Events
+        register(Event.Type.BLOCK_PHYSICS, BlockListener.class, "onBlockPhysics", BlockPhysicsEvent.class);
+        register(Event.Type.BLOCK_CANBUILD, BlockListener.class, "onBlockCanBuild", BlockCanBuildEvent.class);
+        register(Event.Type.BLOCK_PLACE, BlockListener.class, "onBlockPlace", BlockPlaceEvent.class);
+        register(Event.Type.BLOCK_DAMAGE, BlockListener.class, "onBlockDamage", BlockDamageEvent.class);
+        register(Event.Type.BLOCK_FROMTO, BlockListener.class, "onBlockFromTo", BlockFromToEvent.class);
+        register(Event.Type.LEAVES_DECAY, BlockListener.class, "onLeavesDecay", LeavesDecayEvent.class);
+        register(Event.Type.SIGN_CHANGE, BlockListener.class, "onSignChange", SignChangeEvent.class);
+        register(Event.Type.BLOCK_IGNITE, BlockListener.class, "onBlockIgnite", BlockIgniteEvent.class);
+        register(Event.Type.REDSTONE_CHANGE, BlockListener.class, "onBlockRedstoneChange", BlockRedstoneEvent.class);
+        register(Event.Type.BLOCK_BURN, BlockListener.class, "onBlockBurn", BlockBurnEvent.class);
+        register(Event.Type.BLOCK_BREAK, BlockListener.class, "onBlockBreak", BlockBreakEvent.class);
+        register(Event.Type.SNOW_FORM, BlockListener.class, "onSnowForm", SnowFormEvent.class);
+        register(Event.Type.BLOCK_DISPENSE, BlockListener.class, "onBlockDispense", BlockDispenseEvent.class);
+
+        // Server Events
+        register(Event.Type.PLUGIN_ENABLE, ServerListener.class, "onPluginEnable", PluginEnableEvent.class);
+        register(Event.Type.PLUGIN_DISABLE, ServerListener.class, "onPluginDisable", PluginDisableEvent.class);
+        register(Event.Type.SERVER_COMMAND, ServerListener.class, "onServerCommand", ServerCommandEvent.class);
+        register(Event.Type.SERVICE_REGISTER, ServerListener.class, "onServiceRegister", ServiceRegisterEvent.class);
+        register(Event.Type.SERVICE_UNREGISTER, ServerListener.class, "onServiceUnregister", ServiceUnregisterEvent.class);
+
+        // World Events
+        register(Event.Type.CHUNK_LOAD, WorldListener.class, "onChunkLoad", ChunkLoadEvent.class);
+        register(Event.Type.CHUNK_UNLOAD, WorldListener.class, "onChunkUnload", ChunkUnloadEvent.class);
+        register(Event.Type.SPAWN_CHANGE, WorldListener.class, "onSpawnChange", SpawnChangeEvent.class);
+        register(Event.Type.WORLD_SAVE, WorldListener.class, "onWorldSave", WorldSaveEvent.class);
+        register(Event.Type.WORLD_LOAD, WorldListener.class, "onWorldLoad", WorldLoadEvent.class);
+
+        // Painting Events
+        register(Event.Type.PAINTING_PLACE, EntityListener.class, "onPaintingPlace", PaintingPlaceEvent.class);
+        register(Event.Type.PAINTING_BREAK, EntityListener.class, "onPaintingBreak", PaintingBreakEvent.class);
+
+        // Entity Events
+        register(Event.Type.ENTITY_DAMAGE, EntityListener.class, "onEntityDamage", EntityDamageEvent.class);
+        register(Event.Type.ENTITY_DEATH, EntityListener.class, "onEntityDeath", EntityDeathEvent.class);
+        register(Event.Type.ENTITY_COMBUST, EntityListener.class, "onEntityCombust", EntityCombustEvent.class);
+        register(Event.Type.ENTITY_EXPLODE, EntityListener.class, "onEntityExplode", EntityExplodeEvent.class);
+        register(Event.Type.EXPLOSION_PRIME, EntityListener.class, "onExplosionPrime", ExplosionPrimeEvent.class);
+        register(Event.Type.ENTITY_TARGET, EntityListener.class, "onEntityTarget", EntityTargetEvent.class);
+        register(Event.Type.ENTITY_INTERACT, EntityListener.class, "onEntityInteract", EntityInteractEvent.class);
+        register(Event.Type.CREATURE_SPAWN, EntityListener.class, "onCreatureSpawn", CreatureSpawnEvent.class);
+        register(Event.Type.PIG_ZAP, EntityListener.class, "onPigZap", PigZapEvent.class);
+        register(Event.Type.CREEPER_POWER, EntityListener.class, "onCreeperPower", CreeperPowerEvent.class);
+
+        // Vehicle Events
+        register(Event.Type.VEHICLE_CREATE, VehicleListener.class, "onVehicleCreate", VehicleCreateEvent.class);
+        register(Event.Type.VEHICLE_DAMAGE, VehicleListener.class, "onVehicleDamage", VehicleDamageEvent.class);
+        register(Event.Type.VEHICLE_DESTROY, VehicleListener.class, "onVehicleDestroy", VehicleDestroyEvent.class);
+        register(Event.Type.VEHICLE_COLLISION_BLOCK, VehicleListener.class, "onVehicleBlockCollision", VehicleBlockCollisionEvent.class);
+        register(Event.Type.VEHICLE_COLLISION_ENTITY, VehicleListener.class, "onVehicleEntityCollision", VehicleEntityCollisionEvent.class);
+        register(Event.Type.VEHICLE_ENTER, VehicleListener.class, "onVehicleEnter", VehicleEnterEvent.class);
+        register(Event.Type.VEHICLE_EXIT, VehicleListener.class, "onVehicleExit", VehicleExitEvent.class);
+        register(Event.Type.VEHICLE_MOVE, VehicleListener.class, "onVehicleMove", VehicleMoveEvent.class);
+        register(Event.Type.VEHICLE_UPDATE, VehicleListener.class, "onVehicleUpdate", VehicleUpdateEvent.class);
+
+        // Weather Events
+        register(Event.Type.WEATHER_CHANGE, WeatherListener.class, "onWeatherChange", WeatherChangeEvent.class);
+        register(Event.Type.THUNDER_CHANGE, WeatherListener.class, "onThunderChange", ThunderChangeEvent.class);
+        register(Event.Type.LIGHTNING_STRIKE, WeatherListener.class, "onLightningStrike", LightningStrikeEvent.class);
+
+        // Custom Events
+        register(Event.Type.CUSTOM_EVENT, CustomEventListener.class, "onCustomEvent", Event.class);
+    }
+
+    private void register(Event.Type type, Class<? extends Listener> listenerClass, String methodName, Class<? extends Event> eventClass) {
+        targets.put(type, new ExecutorTarget(listenerClass, methodName, eventClass));
+    }
+
+    /**
+     * Creates and returns an event executor
+     *
+     * @param type Type of the event executor to create
+     * @param listener the object that will handle the eventual call back
+     * @return EventExecutor which passes events of the given type to the listener
+     */
+    public EventExecutor createExecutor(Event.Type type, Listener listener) {
+        ExecutorTarget target = targets.get(type);
+
+        if (target == null) {
+            throw new IllegalArgumentException("Event " + type + " is not supported");
+        }
+
+        // Listeners of the wrong type fail when called, as they always have
+        if (!target.listenerClass.isInstance(listener)) {
+            return new ReflectiveExecutor(target.getMethod());
+        }
+
+        Class<? extends Listener> listenerClass = listener.getClass();
+        EventExecutor executor = null;
+
+        try {
+            executor = getExecutor(listenerClass, type, target);
+        } catch (IOException ex) {
+            logger.log(Level.FINE, "Could not generate an executor for " + listenerClass.getName(), ex);
+        } catch (SecurityException ex) {
+            logger.log(Level.FINE, "Could not generate an executor for " + listenerClass.getName(), ex);
+        } catch (IllegalAccessException ex) {
+            logger.log(Level.FINE, "Could not generate an executor for " + listenerClass.getName(), ex);
+        } catch (InstantiationException ex) {
+            logger.log(Level.FINE, "Could not generate an executor for " + listenerClass.getName(), ex);
+        } catch (LinkageError ex) {
+            // A class the JVM rejects is a bug in the generator, so report it once and use reflection from then on
+            warnOnce(listenerClass, ex);
+        }
+
+        if (executor == null) {
+            executor = new ReflectiveExecutor(target.getMethod());
+        }
+
+        return executor;
+    }
+
+    private synchronized void warnOnce(Class<?> listenerClass, LinkageError ex) {
+        if (!warned) {
+            warned = true;
+            logger.log(Level.WARNING, "Could not generate an executor for " + listenerClass.getName() + ", listeners will be called through reflection", ex);
+        }
+    }
+
+    private EventExecutor getExecutor(Class<?> listenerClass, Event.Type type, ExecutorTarget target) throws IOException, IllegalAccessException, InstantiationException {
+        ClassLoader classLoader = listenerClass.getClassLoader();
+        ExecutorClassLoader loader = getLoader(listenerClass);
+        // A plugin's executors are cached on its own loader, so they can't be lost while it is still in use
+        ExecutorCache cache = (classLoader instanceof PluginClassLoader.BasePluginClassLoader) ? ((PluginClassLoader.BasePluginClassLoader) classLoader).getExecutors() : loader.executors;
+
+        synchronized (cache) {
+            EventExecutor executor = cache.get(listenerClass, type);
+
+            if (executor == null) {
+                executor = loader.generateExecutor(listenerClass, target);
+                cache.put(listenerClass, type, executor);
+            }
+
+            return executor;
+        }
+    }
+
+    private synchronized ExecutorClassLoader getLoader(Class<?> listenerClass) {
+        ClassLoader parent = listenerClass.getClassLoader();
+
+        if (parent == null) {
+            parent = EventExecutorFactory.class.getClassLoader();
+        }
+
+        WeakReference<ExecutorClassLoader> ref = loaders.get(parent);
+        ExecutorClassLoader loader = (ref == null) ? null : ref.get();
+
+        if (loader == null) {
+            loader = new ExecutorClassLoader(parent);
+            // Held weakly so the cache doesn't keep the plugin's class loader alive
+            loaders.put(parent, new WeakReference<ExecutorClassLoader>(loader));
+        }
+
+        return loader;
+    }
+
+    /**
+     * Builds the class file for an executor which casts and calls the listener directly
+     *
+     * @param className Internal name of the class to generate
+     * @param owner Class to invoke the listener method on
+     * @param target Listener method to invoke
+     * @return Bytes of the class file
+     */
+    private static byte[] generateExecutor(String className, Class<?> owner, ExecutorTarget target) throws IOException {
+        ConstantPool pool = new ConstantPool();
+        String ownerName = internalName(owner);
+        String eventName = internalName(target.eventClass);
+        boolean castEvent = target.eventClass != Event.class;
+
+        int thisClass = pool.classRef(className);
+        int superClass = pool.classRef("java/lang/Object");
+        int executorInterface = pool.classRef(internalName(EventExecutor.class));
+        int codeName = pool.utf8("Code");
+        int initName = pool.utf8("<init>");
+        int initDesc = pool.utf8("()V");
+        int superInit = pool.methodRef("java/lang/Object", "<init>", "()V");
+        int executeName = pool.utf8("execute");
+        int executeDesc = pool.utf8("(L" + internalName(Listener.class) + ";L" + internalName(Event.class) + ";)V");
+        int ownerClass = pool.classRef(ownerName);
+        int eventClass = pool.classRef(eventName);
+        int listenerMethod = pool.methodRef(ownerName, target.methodName, "(L" + eventName + ";)V");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0); // minor version
+        out.writeShort(49); // Java 5
+        pool.write(out);
+        out.writeShort(0x0001 | 0x0010 | 0x0020); // public final super
+        out.writeShort(thisClass);
+        out.writeShort(superClass);
+        out.writeShort(1);
+        out.writeShort(executorInterface);
+        out.writeShort(0); // fields
+        out.writeShort(2); // methods
+
+        // public <init>() { super(); }
+        out.writeShort(0x0001);
+        out.writeShort(initName);
+        out.writeShort(initDesc);
+        out.writeShort(1);
+        out.writeShort(codeName);
+        out.writeInt(12 + 5);
+        out.writeShort(1); // max stack
+        out.writeShort(1); // max locals
+        out.writeInt(5);
+        out.writeByte(0x2A); // aload_0
+        out.writeByte(0xB7); // invokespecial
+        out.writeShort(superInit);
+        out.writeByte(0xB1); // return
+        out.writeShort(0); // exception table
+        out.writeShort(0); // attributes
+
+        // public void execute(Listener listener, Event event) { ((Owner) listener).method((EventClass) event); }
+        int codeLength = castEvent ? 12 : 9;
+        out.writeShort(0x0001);
+        out.writeShort(executeName);
+        out.writeShort(executeDesc);
+        out.writeShort(1);
+        out.writeShort(codeName);
+        out.writeInt(12 + codeLength);
+        out.writeShort(2); // max stack
+        out.writeShort(3); // max locals
+        out.writeInt(codeLength);
+        out.writeByte(0x2B); // aload_1
+        out.writeByte(0xC0); // checkcast
+        out.writeShort(ownerClass);
+        out.writeByte(0x2C); // aload_2
+        if (castEvent) {
+            out.writeByte(0xC0); // checkcast
+            out.writeShort(eventClass);
+        }
+        out.writeByte(0xB6); // invokevirtual
+        out.writeShort(listenerMethod);
+        out.writeByte(0xB1); // return
+        out.writeShort(0); // exception table
+        out.writeShort(0); // attributes
+
+        out.writeShort(0); // class attributes
+        out.flush();
+
+        return bytes.toByteArray();
+    }
+
+    private static String internalName(Class<?> clazz) {
+        return clazz.getName().replace('.', '/');
+    }
+
+    /**
+     * The listener method called for an event type
+     */
+    private static class ExecutorTarget {
+        private final Class<? extends Listener> listenerClass;
+        private final String methodName;
+        private final Class<? extends Event> eventClass;
+
+        public ExecutorTarget(Class<? extends Listener> listenerClass, String methodName, Class<? extends Event> eventClass) {
+            this.listenerClass = listenerClass;
+            this.methodName = methodName;
+            this.eventClass = eventClass;
+        }
+
+        public Method getMethod() {
+            try {
+                return listenerClass.getMethod(methodName, eventClass);
+            } catch (NoSuchMethodException ex) {
+                throw new IllegalStateException("Listener method " + listenerClass.getName() + "." + methodName + " does not exist", ex);
+            }
+        }
+    }
+
+    /**
+     * Executors already generated for the listeners of a single class loader
+     */
+    static final class ExecutorCache {
+        private final Map<Class<?>, Map<Event.Type, EventExecutor>> executors = new HashMap<Class<?>, Map<Event.Type, EventExecutor>>();
+
+        private EventExecutor get(Class<?> listenerClass, Event.Type type) {
+            Map<Event.Type, EventExecutor> classExecutors = executors.get(listenerClass);
+
+            return (classExecutors == null) ? null : classExecutors.get(type);
+        }
+
+        private void put(Class<?> listenerClass, Event.Type type, EventExecutor executor) {
+            Map<Event.Type, EventExecutor> classExecutors = executors.get(listenerClass);
+
+            if (classExecutors == null) {
+                classExecutors = new EnumMap<Event.Type, EventExecutor>(Event.Type.class);
+                executors.put(listenerClass, classExecutors);
+            }
+            classExecutors.put(type, executor);
+        }
+    }
+
+    /**
+     * Defines the generated executors for the listeners of a single class loader
+     */
+    private static class ExecutorClassLoader extends ClassLoader {
+        private final ExecutorCache executors = new ExecutorCache();
+
+        public ExecutorClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        public EventExecutor generateExecutor(Class<?> listenerClass, ExecutorTarget target) throws IOException, IllegalAccessException, InstantiationException {
+            // Call through the listener's own class so each executor is monomorphic
+            Class<?> owner = listenerClass;
+            String packageName = "org/bukkit/plugin/java/";
+            PluginClassLoader.BasePluginClassLoader pluginLoader = null;
+
+            if (!Modifier.isPublic(listenerClass.getModifiers())) {
+                if (getParent() instanceof PluginClassLoader.BasePluginClassLoader) {
+                    // Other classes can only be called from their own package and loader
+                    String listenerName = internalName(listenerClass);
+
+                    packageName = listenerName.substring(0, listenerName.lastIndexOf('/') + 1);
+                    pluginLoader = (PluginClassLoader.BasePluginClassLoader) getParent();
+                } else {
+                    owner = target.listenerClass;
+                }
+            }
+
+            String className = packageName + EXECUTOR_NAME + executorId.incrementAndGet();
+            byte[] classBytes = EventExecutorFactory.generateExecutor(className, owner, target);
+            Class<?> executorClass;
+
+            if (pluginLoader != null) {
+                executorClass = pluginLoader.defineGeneratedClass(className.replace('/', '.'), classBytes);
+            } else {
+                executorClass = defineClass(className.replace('/', '.'), classBytes, 0, classBytes.length);
+            }
+
+            return (EventExecutor) executorClass.newInstance();
+        }
+    }
+
+    /**
+     * Calls the listener method through reflection, used when an executor can't be generated
+     */
+    private static class ReflectiveExecutor implements EventExecutor {
+        private final Method method;
+
+        public ReflectiveExecutor(Method method) {
+            this.method = method;
+        }
+
+        public void execute(Listener listener, Event event) {
+            try {
+                method.invoke(listener, event);
+            } catch (InvocationTargetException ex) {
+                Throwable cause = ex.getCause();
+
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new RuntimeException(cause);
+            } catch (IllegalAccessException ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+    }
+
+    /**
+     * Minimal class file constant pool
+     */
+    private static class ConstantPool {
+        private final List<byte[]> entries = new ArrayList<byte[]>();
+        private final Map<String, Integer> indexes = new HashMap<String, Integer>();
+
+        public int utf8(String value) throws IOException {
+            String key = "U" + value;
+            Integer index = indexes.get(key);
+
+            if (index == null) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(bytes);
+
+                out.writeByte(1);
+                out.writeUTF(value);
+                index = add(key, bytes.toByteArray());
+            }
+
+            return index;
+        }
+
+        public int classRef(String internalName) throws IOException {
+            return reference("C" + internalName, 7, utf8(internalName), -1);
+        }
+
+        public int methodRef(String owner, String name, String desc) throws IOException {
+            int nameAndType = reference("N" + name + desc, 12, utf8(name), utf8(desc));
+
+            return reference("M" + owner + "." + name + desc, 10, classRef(owner), nameAndType);
+        }
+
+        private int reference(String key, int tag, int first, int second) throws IOException {
+            Integer index = indexes.get(key);
+
+            if (index == null) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(bytes);
+
+                out.writeByte(tag);
+                out.writeShort(first);
+                if (second != -1) {
+                    out.writeShort(second);
+                }
+                index = add(key, bytes.toByteArray());
+            }
+
+            return index;
+        }
+
+        private int add(String key, byte[] entry) {
+            entries.add(entry);
+            int index = entries.size(); // Constant pool indexes start at 1
+            indexes.put(key, index);
+            return index;
+        }
+
+        public void write(DataOutputStream out) throws IOException {
+            out.writeShort(entries.size() + 1);
+            for (byte[] entry : entries) {
+                out.write(entry);
+            }
+        }
+    }
+}
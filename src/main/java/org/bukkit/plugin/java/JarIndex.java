@@ -0,0 +1,436 @@
+package org.bukkit.plugin.java;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.Attributes.Name;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+
+import org.bukkit.plugin.InvalidDescriptionException;
+import org.bukkit.plugin.PluginDescriptionFile;
+
+/**
+ * The description and entry table of a plugin jar
+ *
+ * Indexes are saved in the plugins folder, keyed by the path, size, last
+ * modification time and a hash of the jar's central directory, so a jar which
+ * hasn't changed since the last start doesn't have to be opened or have its
+ * plugin.yml parsed again. The hash is only checked when a saved index is
+ * read, within a run a jar is trusted not to change without its size or
+ * modification time changing.
+ */
+final class JarIndex {
+    private static final int FORMAT = 1;
+    private static final String INDEX_FOLDER = ".jarindex";
+    private static final int END_HEADER = 0x06054b50;
+    private static final int END_HEADER_SIZE = 22;
+    private static final int MAX_COMMENT_SIZE = 0xffff;
+
+    private final String path;
+    private final long length;
+    private final long lastModified;
+    private final long hash;
+    private final PluginDescriptionFile description;
+    private final Set<String> entries;
+    private final boolean classPath;
+
+    private JarIndex(File file, long hash, PluginDescriptionFile description, Set<String> entries, boolean classPath) {
+        this.path = file.getAbsolutePath();
+        this.length = file.length();
+        this.lastModified = file.lastModified();
+        this.hash = hash;
+        this.description = description;
+        this.entries = Collections.unmodifiableSet(entries);
+        this.classPath = classPath;
+    }
+
+    /**
+     * Gets the description of the plugin
+     *
+     * @return Plugin description
+     */
+    public PluginDescriptionFile getDescription() {
+        return description;
+    }
+
+    /**
+     * Gets the names of every class and resource in the jar
+     *
+     * @return Set of entry names
+     */
+    public Set<String> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Checks if the jar's manifest has a Class-Path, which makes other jars
+     * part of the plugin
+     *
+     * @return true if the manifest has a Class-Path
+     */
+    public boolean hasClassPath() {
+        return classPath;
+    }
+
+    /**
+     * Checks if this index still describes the given jar, going by its path,
+     * size and modification time only
+     *
+     * @param file Jar file
+     * @return true if the jar hasn't changed since it was indexed
+     */
+    public boolean isValid(File file) {
+        return file.getAbsolutePath().equals(path) && file.length() == length && file.lastModified() == lastModified;
+    }
+
+    /**
+     * Deletes the saved indexes of jars which are no longer in a folder
+     *
+     * @param folder Folder holding the jars
+     */
+    public static void removeOrphans(File folder) {
+        File[] indexFiles = new File(folder, INDEX_FOLDER).listFiles();
+
+        if (null == indexFiles) {
+            return;
+        }
+
+        for (File indexFile : indexFiles) {
+            String name = indexFile.getName();
+
+            if (name.endsWith(".idx") && !new File(folder, name.substring(0, name.length() - 4)).isFile()) {
+                indexFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Gets the index of a jar, from the plugins folder if it was saved there and
+     * is still valid, or by reading the jar and saving the result
+     *
+     * @param file Jar file
+     * @return Index of the jar
+     * @throws IOException Thrown when the jar can't be read
+     * @throws InvalidDescriptionException Thrown when the plugin.yml is invalid
+     */
+    public static JarIndex get(File file) throws IOException, InvalidDescriptionException {
+        File indexFile = getIndexFile(file);
+        JarIndex index = read(indexFile, file);
+
+        if (null == index) {
+            index = scan(file);
+
+            try {
+                index.write(indexFile);
+            } catch (IOException ex) {
+                // The index is only a cache, the jar is read again next time
+                indexFile.delete();
+            }
+        }
+
+        return index;
+    }
+
+    /**
+     * Reads the index of a jar from the jar itself
+     *
+     * @param file Jar file
+     * @return Index of the jar
+     * @throws IOException Thrown when the jar can't be read
+     * @throws InvalidDescriptionException Thrown when the plugin.yml is invalid
+     */
+    public static JarIndex scan(File file) throws IOException, InvalidDescriptionException {
+        long hash = hash(file);
+        JarFile jar = new JarFile(file);
+
+        try {
+            JarEntry descriptionEntry = jar.getJarEntry("plugin.yml");
+
+            if (descriptionEntry == null) {
+                throw new FileNotFoundException("Jar does not contain plugin.yml");
+            }
+
+            InputStream stream = jar.getInputStream(descriptionEntry);
+            PluginDescriptionFile description;
+
+            try {
+                description = new PluginDescriptionFile(stream);
+            } finally {
+                stream.close();
+            }
+
+            Set<String> entries = new HashSet<String>();
+            for (Enumeration<JarEntry> e = jar.entries(); e.hasMoreElements();) {
+                entries.add(e.nextElement().getName());
+            }
+
+            Manifest manifest = jar.getManifest();
+            String cp = (null == manifest) ? null : manifest.getMainAttributes().getValue(Name.CLASS_PATH);
+
+            return new JarIndex(file, hash, description, entries, null != cp && 0 != cp.trim().length());
+        } finally {
+            jar.close();
+        }
+    }
+
+    private static File getIndexFile(File file) {
+        return new File(new File(file.getParentFile(), INDEX_FOLDER), file.getName() + ".idx");
+    }
+
+    /**
+     * Reads a saved index
+     *
+     * @param indexFile File the index was saved to
+     * @param file Jar file the index is for
+     * @return The index, or null if there is no valid index for the jar
+     */
+    private static JarIndex read(File indexFile, File file) {
+        if (!indexFile.isFile()) {
+            return null;
+        }
+
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+
+            try {
+                if (in.readInt() != FORMAT
+                        || !in.readUTF().equals(file.getAbsolutePath())
+                        || in.readLong() != file.length()
+                        || in.readLong() != file.lastModified()) {
+                    return null;
+                }
+
+                long hash = in.readLong();
+                if (hash != hash(file)) {
+                    return null;
+                }
+
+                boolean classPath = in.readBoolean();
+                int count = in.readInt();
+                Set<String> entries = new HashSet<String>(count * 4 / 3 + 1);
+                for (int i = 0; i < count; i++) {
+                    entries.add(in.readUTF());
+                }
+
+                @SuppressWarnings("unchecked")
+                Map<String, Object> map = (Map<String, Object>) readValue(in);
+
+                return new JarIndex(file, hash, new PluginDescriptionFile(map), entries, classPath);
+            } finally {
+                in.close();
+            }
+        } catch (IOException ex) {
+            return null;
+        } catch (InvalidDescriptionException ex) {
+            return null;
+        } catch (ClassCastException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Saves this index, replacing the file only once it has been fully written
+     *
+     * @param indexFile File to save to
+     * @throws IOException Thrown when the index can't be saved
+     */
+    private void write(File indexFile) throws IOException {
+        File folder = indexFile.getParentFile();
+
+        if (!folder.isDirectory() && !folder.mkdirs()) {
+            throw new IOException("Unable to create " + folder);
+        }
+
+        File tmpFile = new File(folder, indexFile.getName() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+
+        try {
+            out.writeInt(FORMAT);
+            out.writeUTF(path);
+            out.writeLong(length);
+            out.writeLong(lastModified);
+            out.writeLong(hash);
+            out.writeBoolean(classPath);
+            out.writeInt(entries.size());
+            for (String entry : entries) {
+                out.writeUTF(entry);
+            }
+            writeValue(out, description.saveMap());
+        } finally {
+            out.close();
+        }
+
+        indexFile.delete();
+        if (!tmpFile.renameTo(indexFile)) {
+            tmpFile.delete();
+            throw new IOException("Unable to rename " + tmpFile + " to " + indexFile);
+        }
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (null == value) {
+            out.writeByte('N');
+        } else if (value instanceof String) {
+            out.writeByte('S');
+            out.writeUTF((String) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte('Z');
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Integer) {
+            out.writeByte('I');
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte('J');
+            out.writeLong((Long) value);
+        } else if (value instanceof Double) {
+            out.writeByte('D');
+            out.writeDouble((Double) value);
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+
+            out.writeByte('L');
+            out.writeInt(list.size());
+            for (Object element : list) {
+                writeValue(out, element);
+            }
+        } else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+
+            out.writeByte('M');
+            out.writeInt(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                writeValue(out, entry.getKey());
+                writeValue(out, entry.getValue());
+            }
+        } else {
+            throw new IOException("Can't save values of type " + value.getClass().getName());
+        }
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+
+        switch (type) {
+        case 'N':
+            return null;
+
+        case 'S':
+            return in.readUTF();
+
+        case 'Z':
+            return in.readBoolean();
+
+        case 'I':
+            return in.readInt();
+
+        case 'J':
+            return in.readLong();
+
+        case 'D':
+            return in.readDouble();
+
+        case 'L': {
+            int size = in.readInt();
+            List<Object> list = new ArrayList<Object>(size);
+
+            for (int i = 0; i < size; i++) {
+                list.add(readValue(in));
+            }
+            return list;
+        }
+
+        case 'M': {
+            int size = in.readInt();
+            Map<Object, Object> map = new LinkedHashMap<Object, Object>();
+
+            for (int i = 0; i < size; i++) {
+                map.put(readValue(in), readValue(in));
+            }
+            return map;
+        }
+
+        default:
+            throw new IOException("Unknown value type " + type);
+        }
+    }
+
+    /**
+     * Hashes the central directory of a jar, which holds the name, size and CRC
+     * of every entry, so any change to the jar's contents changes the hash
+     * without reading the whole jar
+     *
+     * @param file Jar file
+     * @return Hash of the jar
+     * @throws IOException Thrown when the jar can't be read
+     */
+    static long hash(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+        try {
+            long fileLength = raf.length();
+            int tailLength = (int) Math.min(fileLength, END_HEADER_SIZE + MAX_COMMENT_SIZE);
+            byte[] tail = new byte[tailLength];
+            CRC32 crc = new CRC32();
+
+            raf.seek(fileLength - tailLength);
+            raf.readFully(tail);
+
+            for (int i = tailLength - END_HEADER_SIZE; i >= 0; i--) {
+                if (readInt(tail, i) != END_HEADER) {
+                    continue;
+                }
+
+                long size = readInt(tail, i + 12) & 0xffffffffL;
+                long offset = readInt(tail, i + 16) & 0xffffffffL;
+
+                if (offset + size <= fileLength - tailLength + i) {
+                    byte[] buffer = new byte[8192];
+
+                    raf.seek(offset);
+                    while (size > 0) {
+                        int read = raf.read(buffer, 0, (int) Math.min(buffer.length, size));
+
+                        if (-1 == read) {
+                            throw new IOException("Unexpected end of " + file);
+                        }
+                        crc.update(buffer, 0, read);
+                        size -= read;
+                    }
+                    return crc.getValue();
+                }
+            }
+
+            // Not a jar we understand, the tail still changes with its contents
+            crc.update(tail);
+            return crc.getValue();
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static int readInt(byte[] buffer, int offset) {
+        return (buffer[offset] & 0xff)
+                | (buffer[offset + 1] & 0xff) << 8
+                | (buffer[offset + 2] & 0xff) << 16
+                | (buffer[offset + 3] & 0xff) << 24;
+    }
+}
@@ -23,19 +23,12 @@ import java.util.jar.Attributes.Name;
 import java.util.jar.Manifest;
 import java.util.StringTokenizer;
 import java.util.Enumeration;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.bukkit.Server;
-import org.bukkit.event.CustomEventListener;
 import org.bukkit.event.Event;
 import org.bukkit.event.Listener;
-import org.bukkit.event.block.*;
-import org.bukkit.event.painting.*;
-import org.bukkit.event.entity.*;
-import org.bukkit.event.player.*;
 import org.bukkit.event.server.*;
-import org.bukkit.event.vehicle.*;
-import org.bukkit.event.world.*;
-import org.bukkit.event.weather.*;
 import org.bukkit.plugin.*;
 import org.yaml.snakeyaml.error.YAMLException;
 
@@ -49,10 +42,14 @@ public final class JavaPluginLoader implements PluginLoader {
         Pattern.compile("\\.jar$"),
     };
     private final PluginClassLoader pluginLoader;
+    private final EventExecutorFactory executorFactory;
+    private final Map<File, JarIndex> indexes = new ConcurrentHashMap<File, JarIndex>();
+    private final Map<File, Boolean> indexFolders = new ConcurrentHashMap<File, Boolean>();
 
     public JavaPluginLoader(Server instance) {
         server = instance;
         pluginLoader = new PluginClassLoader();
+        executorFactory = new EventExecutorFactory(instance.getLogger());
     }
 
     public Plugin loadPlugin(File file) throws InvalidPluginException, InvalidDescriptionException, UnknownDependencyException {
@@ -61,7 +58,8 @@ public final class JavaPluginLoader implements PluginLoader {
 
     public Plugin loadPlugin(File file, boolean checkDependencies) throws InvalidPluginException, InvalidDescriptionException, UnknownDependencyException {
         JavaPlugin result = null;
-        PluginDescriptionFile description = getPluginDescription(file);
+        JarIndex index = getJarIndex(file);
+        PluginDescriptionFile description = index.getDescription();
         File dataFolder = new File(file.getParentFile(), description.getName());
         File oldDataFolder = getDataFolder(file);
 
@@ -109,7 +107,7 @@ public final class JavaPluginLoader implements PluginLoader {
 
         try {
 
-            ClassLoader loader = pluginLoader.getLoader(description.getName(), file.toURI().toURL());
+            ClassLoader loader = pluginLoader.getLoader(file, index);
             Class<?> jarClass = Class.forName(description.getMain(), true, loader);
             Class<? extends JavaPlugin> plugin = jarClass.asSubclass(JavaPlugin.class);
             Constructor<? extends JavaPlugin> constructor = plugin.getConstructor();
@@ -123,26 +121,39 @@ public final class JavaPluginLoader implements PluginLoader {
     }
 
     public PluginDescriptionFile getPluginDescription(File file) throws InvalidPluginException, InvalidDescriptionException {
+        return getJarIndex(file).getDescription();
+    }
+
+    /**
+     * Gets the index of a plugin jar, reading it from the jar only if it has
+     * changed since it was last indexed
+     *
+     * @param file Jar file
+     * @return Index of the jar
+     * @throws InvalidPluginException Thrown when the jar can't be read
+     * @throws InvalidDescriptionException Thrown when the plugin.yml is invalid
+     */
+    private JarIndex getJarIndex(File file) throws InvalidPluginException, InvalidDescriptionException {
         if (!file.exists()) {
             throw new InvalidPluginException(new FileNotFoundException(String.format("%s does not exist", file.getPath())));
         }
 
-        try {
-            JarFile jar = new JarFile(file);
-            JarEntry entry = jar.getJarEntry("plugin.yml");
-
-            if (entry == null) {
-                throw new InvalidPluginException(new FileNotFoundException("Jar does not contain plugin.yml"));
-            }
-
-            InputStream stream = jar.getInputStream(entry);
-            PluginDescriptionFile description = new PluginDescriptionFile(stream);
+        JarIndex index = indexes.get(file);
 
-            stream.close();
-            jar.close();
+        if (index != null && index.isValid(file)) {
+            return index;
+        }
 
-            return description;
+        // Clean up the indexes of removed jars the first time a folder is used
+        File folder = file.getAbsoluteFile().getParentFile();
+        if (folder != null && indexFolders.put(folder, Boolean.TRUE) == null) {
+            JarIndex.removeOrphans(folder);
+        }
 
+        try {
+            index = JarIndex.get(file);
+            indexes.put(file, index);
+            return index;
         } catch (IOException ex) {
             throw new InvalidPluginException(ex);
         } catch (YAMLException ex) {
@@ -267,504 +278,7 @@ public final class JavaPluginLoader implements PluginLoader {
     }
 
     public EventExecutor createExecutor(Event.Type type, Listener listener) {
-        // TODO: remove multiple Listener type and hence casts
-
-        switch (type) {
-        // Player Events
-
-        case PLAYER_JOIN:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((PlayerListener) listener).onPlayerJoin((PlayerJoinEvent) event);
-                }
-            };
-
-        case PLAYER_QUIT:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((PlayerListener) listener).onPlayerQuit((PlayerQuitEvent) event);
-                }
-            };
-
-        case PLAYER_RESPAWN:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((PlayerListener) listener).onPlayerRespawn((PlayerRespawnEvent) event);
-                }
-            };
-
-        case PLAYER_KICK:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((PlayerListener) listener).onPlayerKick((PlayerKickEvent) event);
-                }
-            };
-
-        case PLAYER_COMMAND_PREPROCESS:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((PlayerListener) listener).onPlayerCommandPreprocess((PlayerCommandPreprocessEvent) event);
-                }
-            };
-
-        case PLAYER_CHAT:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((PlayerListener) listener).onPlayerChat((PlayerChatEvent) event);
-                }
-            };
-
-        case PLAYER_MOVE:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((PlayerListener) listener).onPlayerMove((PlayerMoveEvent) event);
-                }
-            };
-
-        case PLAYER_TELEPORT:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((PlayerListener) listener).onPlayerTeleport((PlayerTeleportEvent) event);
-                }
-            };
-
-        case PLAYER_INTERACT:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((PlayerListener) listener).onPlayerInteract((PlayerInteractEvent) event);
-                }
-            };
-
-        case PLAYER_INTERACT_ENTITY:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((PlayerListener) listener).onPlayerInteractEntity((PlayerInteractEntityEvent) event);
-                }
-            };
-
-        case PLAYER_LOGIN:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((PlayerListener) listener).onPlayerLogin((PlayerLoginEvent) event);
-                }
-            };
-
-        case PLAYER_PRELOGIN:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((PlayerListener) listener).onPlayerPreLogin((PlayerPreLoginEvent) event);
-                }
-            };
-
-        case PLAYER_EGG_THROW:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((PlayerListener) listener).onPlayerEggThrow((PlayerEggThrowEvent) event);
-                }
-            };
-
-        case PLAYER_ANIMATION:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((PlayerListener) listener).onPlayerAnimation((PlayerAnimationEvent) event);
-                }
-            };
-
-        case INVENTORY_OPEN:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((PlayerListener) listener).onInventoryOpen((PlayerInventoryEvent) event);
-                }
-            };
-
-        case PLAYER_ITEM_HELD:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((PlayerListener) listener).onItemHeldChange((PlayerItemHeldEvent) event);
-                }
-            };
-
-        case PLAYER_DROP_ITEM:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((PlayerListener) listener).onPlayerDropItem((PlayerDropItemEvent) event);
-                }
-            };
-
-        case PLAYER_PICKUP_ITEM:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((PlayerListener) listener).onPlayerPickupItem((PlayerPickupItemEvent) event);
-                }
-            };
-
-        case PLAYER_TOGGLE_SNEAK:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((PlayerListener) listener).onPlayerToggleSneak((PlayerToggleSneakEvent) event);
-                }
-            };
-
-        case PLAYER_BUCKET_EMPTY:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((PlayerListener) listener).onPlayerBucketEmpty((PlayerBucketEmptyEvent) event);
-                }
-            };
-
-        case PLAYER_BUCKET_FILL:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((PlayerListener) listener).onPlayerBucketFill((PlayerBucketFillEvent) event);
-                }
-            };
-
-        case PLAYER_BED_ENTER:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((PlayerListener) listener).onPlayerBedEnter((PlayerBedEnterEvent) event);
-                }
-            };
-
-        case PLAYER_BED_LEAVE:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((PlayerListener) listener).onPlayerBedLeave((PlayerBedLeaveEvent) event);
-                }
-            };
-
-        // Block Events
-        case BLOCK_PHYSICS:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((BlockListener) listener).onBlockPhysics((BlockPhysicsEvent) event);
-                }
-            };
-
-        case BLOCK_CANBUILD:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((BlockListener) listener).onBlockCanBuild((BlockCanBuildEvent) event);
-                }
-            };
-
-        case BLOCK_PLACE:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((BlockListener) listener).onBlockPlace((BlockPlaceEvent) event);
-                }
-            };
-
-        case BLOCK_DAMAGE:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((BlockListener) listener).onBlockDamage((BlockDamageEvent) event);
-                }
-            };
-
-        case BLOCK_FROMTO:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((BlockListener) listener).onBlockFromTo((BlockFromToEvent) event);
-                }
-            };
-
-        case LEAVES_DECAY:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((BlockListener) listener).onLeavesDecay((LeavesDecayEvent) event);
-                }
-            };
-
-        case SIGN_CHANGE:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((BlockListener) listener).onSignChange((SignChangeEvent) event);
-                }
-            };
-
-        case BLOCK_IGNITE:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((BlockListener) listener).onBlockIgnite((BlockIgniteEvent) event);
-                }
-            };
-
-        case REDSTONE_CHANGE:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((BlockListener) listener).onBlockRedstoneChange((BlockRedstoneEvent) event);
-                }
-            };
-
-        case BLOCK_BURN:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((BlockListener) listener).onBlockBurn((BlockBurnEvent) event);
-                }
-            };
-
-        case BLOCK_BREAK:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((BlockListener) listener).onBlockBreak((BlockBreakEvent) event);
-                }
-            };
-
-        case SNOW_FORM:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((BlockListener) listener).onSnowForm((SnowFormEvent) event);
-                }
-            };
-
-        case BLOCK_DISPENSE:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((BlockListener) listener).onBlockDispense((BlockDispenseEvent) event);
-                }
-            };
-
-        // Server Events
-        case PLUGIN_ENABLE:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((ServerListener) listener).onPluginEnable((PluginEnableEvent) event);
-                }
-            };
-
-        case PLUGIN_DISABLE:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((ServerListener) listener).onPluginDisable((PluginDisableEvent) event);
-                }
-            };
-
-        case SERVER_COMMAND:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((ServerListener) listener).onServerCommand((ServerCommandEvent) event);
-                }
-            };
-
-        // World Events
-        case CHUNK_LOAD:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((WorldListener) listener).onChunkLoad((ChunkLoadEvent) event);
-                }
-            };
-
-        case CHUNK_UNLOAD:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((WorldListener) listener).onChunkUnload((ChunkUnloadEvent) event);
-                }
-            };
-
-        case SPAWN_CHANGE:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((WorldListener) listener).onSpawnChange((SpawnChangeEvent) event);
-                }
-            };
-
-        case WORLD_SAVE:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((WorldListener) listener).onWorldSave((WorldSaveEvent) event);
-                }
-            };
-
-        case WORLD_LOAD:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((WorldListener) listener).onWorldLoad((WorldLoadEvent) event);
-                }
-            };
-
-        // Painting Events
-        case PAINTING_PLACE:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((EntityListener) listener).onPaintingPlace((PaintingPlaceEvent) event);
-                }
-            };
-
-        case PAINTING_BREAK:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((EntityListener) listener).onPaintingBreak((PaintingBreakEvent) event);
-                }
-            };
-
-        // Entity Events
-        case ENTITY_DAMAGE:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((EntityListener) listener).onEntityDamage((EntityDamageEvent) event);
-                }
-            };
-
-        case ENTITY_DEATH:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((EntityListener) listener).onEntityDeath((EntityDeathEvent) event);
-                }
-            };
-
-        case ENTITY_COMBUST:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((EntityListener) listener).onEntityCombust((EntityCombustEvent) event);
-                }
-            };
-
-        case ENTITY_EXPLODE:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((EntityListener) listener).onEntityExplode((EntityExplodeEvent) event);
-                }
-            };
-
-        case EXPLOSION_PRIME:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((EntityListener) listener).onExplosionPrime((ExplosionPrimeEvent) event);
-                }
-            };
-
-        case ENTITY_TARGET:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((EntityListener) listener).onEntityTarget((EntityTargetEvent) event);
-                }
-            };
-
-        case ENTITY_INTERACT:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((EntityListener) listener).onEntityInteract((EntityInteractEvent) event);
-                }
-            };
-
-        case CREATURE_SPAWN:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((EntityListener) listener).onCreatureSpawn((CreatureSpawnEvent) event);
-                }
-            };
-
-        case PIG_ZAP:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((EntityListener) listener).onPigZap((PigZapEvent) event);
-                }
-            };
-
-        case CREEPER_POWER:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((EntityListener) listener).onCreeperPower((CreeperPowerEvent) event);
-                }
-            };
-
-        // Vehicle Events
-        case VEHICLE_CREATE:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((VehicleListener) listener).onVehicleCreate((VehicleCreateEvent) event);
-                }
-            };
-
-        case VEHICLE_DAMAGE:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((VehicleListener) listener).onVehicleDamage((VehicleDamageEvent) event);
-                }
-            };
-
-        case VEHICLE_DESTROY:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((VehicleListener) listener).onVehicleDestroy((VehicleDestroyEvent) event);
-                }
-            };
-
-        case VEHICLE_COLLISION_BLOCK:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((VehicleListener) listener).onVehicleBlockCollision((VehicleBlockCollisionEvent) event);
-                }
-            };
-
-        case VEHICLE_COLLISION_ENTITY:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((VehicleListener) listener).onVehicleEntityCollision((VehicleEntityCollisionEvent) event);
-                }
-            };
-
-        case VEHICLE_ENTER:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((VehicleListener) listener).onVehicleEnter((VehicleEnterEvent) event);
-                }
-            };
-
-        case VEHICLE_EXIT:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((VehicleListener) listener).onVehicleExit((VehicleExitEvent) event);
-                }
-            };
-
-        case VEHICLE_MOVE:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((VehicleListener) listener).onVehicleMove((VehicleMoveEvent) event);
-                }
-            };
-
-        case VEHICLE_UPDATE:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((VehicleListener) listener).onVehicleUpdate((VehicleUpdateEvent) event);
-                }
-            };
-
-        // Weather Events
-        case WEATHER_CHANGE:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((WeatherListener) listener).onWeatherChange((WeatherChangeEvent) event);
-                }
-            };
-
-        case THUNDER_CHANGE:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((WeatherListener) listener).onThunderChange((ThunderChangeEvent) event);
-                }
-            };
-
-        case LIGHTNING_STRIKE:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((WeatherListener) listener).onLightningStrike((LightningStrikeEvent) event);
-                }
-            };
-
-        // Custom Events
-        case CUSTOM_EVENT:
-            return new EventExecutor() {
-                public void execute(Listener listener, Event event) {
-                    ((CustomEventListener) listener).onCustomEvent(event);
-                }
-            };
-        }
-
-        throw new IllegalArgumentException("Event " + type + " is not supported");
+        return executorFactory.createExecutor(type, listener);
     }
 
     public void enablePlugin(final Plugin plugin) {
@@ -785,7 +299,9 @@ public final class JavaPluginLoader implements PluginLoader {
 
             // Perhaps abort here, rather than continue going, but as it stands,
             // an abort is not possible the way it's currently written
-            server.getPluginManager().callEvent(new PluginEnableEvent(plugin));
+            if (server.getPluginManager().hasListeners(Event.Type.PLUGIN_ENABLE)) {
+                server.getPluginManager().callEvent(new PluginEnableEvent(plugin));
+            }
         }
     }
 
@@ -804,9 +320,27 @@ public final class JavaPluginLoader implements PluginLoader {
                 server.getLogger().log(Level.SEVERE, "Error occurred while disabling " + plugin.getDescription().getFullName() + " (Is it up to date?): " + ex.getMessage(), ex);
             }
 
-            server.getPluginManager().callEvent(new PluginDisableEvent(plugin));
+            // Finish any save of the main configuration the plugin requested
+            if (jPlugin.getConfiguration() != null && !jPlugin.getConfiguration().flush()) {
+                server.getLogger().log(Level.SEVERE, "Could not save the configuration of " + plugin.getDescription().getFullName());
+            }
+
+            if (server.getPluginManager().hasListeners(Event.Type.PLUGIN_DISABLE)) {
+                server.getPluginManager().callEvent(new PluginDisableEvent(plugin));
+            }
 
             pluginLoader.removeLoader(jPlugin.getDescription().getName());
         }
     }
+
+    public void unloadPlugin(Plugin plugin) {
+        if (!(plugin instanceof JavaPlugin)) {
+            throw new IllegalArgumentException("Plugin is not associated with this PluginLoader");
+        }
+
+        disablePlugin(plugin);
+
+        JavaPlugin jPlugin = (JavaPlugin) plugin;
+        pluginLoader.releaseLoader(jPlugin.getDescription().getName(), jPlugin.getClassLoader());
+    }
 }
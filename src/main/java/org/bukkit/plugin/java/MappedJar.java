@@ -0,0 +1,375 @@
+package org.bukkit.plugin.java;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.jar.Manifest;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * A plugin jar mapped into memory
+ *
+ * The central directory is read once when the jar is mapped. Stored entries
+ * are returned as views of the mapping, compressed entries are inflated
+ * straight from it without going through a JarFile or URL connection.
+ *
+ * Jars using zip64 extensions aren't supported and fail to map, so they are
+ * loaded from their URL instead.
+ */
+final class MappedJar {
+    private static final int END_HEADER = 0x06054b50;
+    private static final int END_HEADER_SIZE = 22;
+    private static final int MAX_COMMENT_SIZE = 0xffff;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+    private static final int ZIP64_MARKER = 0xffffffff;
+
+    private final File file;
+    private final long length;
+    private final long lastModified;
+    private final ByteBuffer mapping;
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+    private final Manifest manifest;
+    private boolean signed = false;
+
+    /**
+     * Maps a jar and reads its central directory
+     *
+     * @param file Jar file
+     * @throws IOException Thrown when the jar can't be read or isn't a valid jar
+     */
+    public MappedJar(File file) throws IOException {
+        this.file = file;
+        this.length = file.length();
+        this.lastModified = file.lastModified();
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+        try {
+            FileChannel channel = raf.getChannel();
+
+            // The mapping stays valid after the channel is closed
+            mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+        } finally {
+            raf.close();
+        }
+
+        readCentralDirectory();
+
+        InputStream stream = getInputStream("META-INF/MANIFEST.MF");
+        if (null == stream) {
+            manifest = null;
+        } else {
+            try {
+                manifest = new Manifest(stream);
+            } finally {
+                stream.close();
+            }
+        }
+    }
+
+    private void readCentralDirectory() throws IOException {
+        int limit = mapping.limit();
+        int end = -1;
+
+        for (int i = limit - END_HEADER_SIZE; i >= Math.max(0, limit - END_HEADER_SIZE - MAX_COMMENT_SIZE); i--) {
+            if (mapping.getInt(i) == END_HEADER) {
+                end = i;
+                break;
+            }
+        }
+
+        if (-1 == end) {
+            throw new ZipException("End of central directory not found");
+        }
+
+        int count = mapping.getShort(end + 10) & 0xffff;
+        int position = mapping.getInt(end + 16);
+
+        if (0xffff == count || ZIP64_MARKER == position) {
+            throw new ZipException("Zip64 jars are not supported");
+        }
+
+        for (int i = 0; i < count; i++) {
+            if (position < 0 || position + CENTRAL_HEADER_SIZE > end || mapping.getInt(position) != CENTRAL_HEADER) {
+                throw new ZipException("Invalid central directory");
+            }
+
+            int method = mapping.getShort(position + 10) & 0xffff;
+            int compressedSize = mapping.getInt(position + 20);
+            int size = mapping.getInt(position + 24);
+            int nameLength = mapping.getShort(position + 28) & 0xffff;
+            int extraLength = mapping.getShort(position + 30) & 0xffff;
+            int commentLength = mapping.getShort(position + 32) & 0xffff;
+            int localHeader = mapping.getInt(position + 42);
+
+            // The real values are in a zip64 extra field
+            if (ZIP64_MARKER == compressedSize || ZIP64_MARKER == size || ZIP64_MARKER == localHeader) {
+                throw new ZipException("Zip64 entries are not supported");
+            }
+
+            byte[] nameBytes = new byte[nameLength];
+            ByteBuffer nameBuffer = mapping.duplicate();
+            nameBuffer.position(position + CENTRAL_HEADER_SIZE);
+            nameBuffer.get(nameBytes);
+            String name = new String(nameBytes, "UTF-8");
+
+            entries.put(name, new Entry(method, compressedSize, size, localHeader));
+
+            String upperName = name.toUpperCase();
+            if (upperName.startsWith("META-INF/") && (upperName.endsWith(".SF") || upperName.endsWith(".RSA") || upperName.endsWith(".DSA"))) {
+                signed = true;
+            }
+
+            position += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+    }
+
+    /**
+     * Checks if the jar file still has the length and modification time it had
+     * when it was mapped. Reading a mapping whose file was overwritten may
+     * crash, so it must not be used once this returns false.
+     *
+     * @return true if the file wasn't changed
+     */
+    public boolean isUnchanged() {
+        return file.length() == length && file.lastModified() == lastModified;
+    }
+
+    /**
+     * Gets the manifest of the jar
+     *
+     * @return Manifest, or null if the jar has none
+     */
+    public Manifest getManifest() {
+        return manifest;
+    }
+
+    /**
+     * Checks if the jar is signed, in which case its classes need to be loaded
+     * with their certificates
+     *
+     * @return true if the jar has signature files
+     */
+    public boolean isSigned() {
+        return signed;
+    }
+
+    /**
+     * Checks if the jar has an entry
+     *
+     * @param name Name of the entry
+     * @return true if the entry exists
+     */
+    public boolean contains(String name) {
+        return entries.containsKey(name);
+    }
+
+    /**
+     * Gets the contents of an entry
+     *
+     * @param name Name of the entry
+     * @return Buffer holding the contents, or null if the entry doesn't exist
+     * @throws IOException Thrown when the entry can't be read
+     */
+    public ByteBuffer getBuffer(String name) throws IOException {
+        Entry entry = entries.get(name);
+
+        if (null == entry) {
+            return null;
+        }
+
+        ByteBuffer data = getData(entry);
+
+        if (STORED == entry.method) {
+            return data;
+        }
+
+        Inflater inflater = new Inflater(true);
+        try {
+            byte[] input = new byte[Math.min(8192, entry.compressedSize + 1)];
+            byte[] output = new byte[entry.size];
+            int inflated = 0;
+            boolean eof = false;
+
+            while (!inflater.finished() && inflated < output.length) {
+                if (inflater.needsInput()) {
+                    // A trailing dummy byte is needed by some versions of zlib
+                    int length = Math.min(input.length, data.remaining());
+                    if (0 == length) {
+                        if (eof) {
+                            break;
+                        }
+                        eof = true;
+                        input[0] = 0;
+                        length = 1;
+                    } else {
+                        data.get(input, 0, length);
+                    }
+                    inflater.setInput(input, 0, length);
+                }
+
+                int read = inflater.inflate(output, inflated, output.length - inflated);
+                if (0 == read && inflater.needsDictionary()) {
+                    throw new ZipException("Invalid compressed entry " + name);
+                }
+                inflated += read;
+            }
+
+            if (inflated != output.length) {
+                throw new EOFException("Unexpected end of entry " + name);
+            }
+
+            return ByteBuffer.wrap(output);
+        } catch (DataFormatException ex) {
+            ZipException zipEx = new ZipException("Invalid compressed entry " + name);
+            zipEx.initCause(ex);
+            throw zipEx;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Gets a stream reading the contents of an entry
+     *
+     * @param name Name of the entry
+     * @return Stream of the contents, or null if the entry doesn't exist
+     * @throws IOException Thrown when the entry can't be read
+     */
+    public InputStream getInputStream(String name) throws IOException {
+        Entry entry = entries.get(name);
+
+        if (null == entry) {
+            return null;
+        }
+
+        InputStream stream = new BufferInputStream(getData(entry));
+
+        if (STORED == entry.method) {
+            return stream;
+        }
+
+        return new InflaterInputStream(stream, new Inflater(true), 512) {
+            private boolean eof = false;
+            private boolean closed = false;
+
+            @Override
+            protected void fill() throws IOException {
+                if (eof) {
+                    throw new EOFException("Unexpected end of compressed entry");
+                }
+
+                len = in.read(buf, 0, buf.length);
+                if (-1 == len) {
+                    // A trailing dummy byte is needed by some versions of zlib
+                    buf[0] = 0;
+                    len = 1;
+                    eof = true;
+                }
+                inf.setInput(buf, 0, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (!closed) {
+                    closed = true;
+                    inf.end();
+                    super.close();
+                }
+            }
+        };
+    }
+
+    private ByteBuffer getData(Entry entry) throws IOException {
+        if (STORED != entry.method && DEFLATED != entry.method) {
+            throw new ZipException("Unsupported compression method " + entry.method);
+        }
+
+        int offset = entry.localHeader;
+        if (offset < 0 || offset + LOCAL_HEADER_SIZE > mapping.limit() || mapping.getInt(offset) != LOCAL_HEADER) {
+            throw new ZipException("Invalid local header");
+        }
+
+        int start = offset + LOCAL_HEADER_SIZE + (mapping.getShort(offset + 26) & 0xffff) + (mapping.getShort(offset + 28) & 0xffff);
+        int length = (STORED == entry.method) ? entry.size : entry.compressedSize;
+        if (length < 0 || start + length > mapping.limit()) {
+            throw new ZipException("Invalid entry size");
+        }
+
+        ByteBuffer data = mapping.duplicate();
+        data.position(start);
+        data.limit(start + length);
+        return data.slice();
+    }
+
+    private static class Entry {
+        private final int method;
+        private final int compressedSize;
+        private final int size;
+        private final int localHeader;
+
+        public Entry(int method, int compressedSize, int size, int localHeader) {
+            this.method = method;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeader = localHeader;
+        }
+    }
+
+    /**
+     * Reads the contents of a buffer without copying them first
+     */
+    private static class BufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        public BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (0 == len) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+            return len;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
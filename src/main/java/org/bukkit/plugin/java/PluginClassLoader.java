@@ -1,31 +1,87 @@
 package org.bukkit.plugin.java;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.ByteBuffer;
+import java.security.CodeSource;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.jar.Manifest;
 
-import java.util.HashSet;
-import java.util.Collection;
-import java.util.Iterator;
-import java.util.Arrays;
+import org.bukkit.plugin.PluginDescriptionFile;
 
 /**
  * A ClassLoader for plugins, to allow shared classes across multiple plugins
+ *
+ * The classes in each plugin jar are indexed when its loader is created, so a
+ * class missing from a plugin is looked up directly in the plugin which owns it
+ * instead of asking every loader in turn. Plugins can only see the classes of
+ * the plugins they depend or soft depend on, directly or indirectly.
+ *
+ * Classes may be loaded concurrently, for example from scheduler worker threads
+ * or during parallel plugin loading. The loader registry is a concurrent map and
+ * each plugin loader locks per class name while defining a class.
  */
 public class PluginClassLoader extends URLClassLoader {
-    private final Map<String, BasePluginClassLoader> loaders = new HashMap<String, BasePluginClassLoader>();
+    static {
+        // Java 7+ only, so classes can be loaded through the shared loader from several threads at once
+        try {
+            Method register = ClassLoader.class.getDeclaredMethod("registerAsParallelCapable");
+
+            // Protected, but accessible from a subclass without setAccessible, which newer JVMs refuse
+            register.invoke(null);
+        } catch (Exception ex) {
+            // Not supported
+        }
+    }
+
+    private final ConcurrentMap<String, BasePluginClassLoader> loaders = new ConcurrentHashMap<String, BasePluginClassLoader>();
+    private final ConcurrentMap<String, BasePluginClassLoader> classIndex = new ConcurrentHashMap<String, BasePluginClassLoader>();
+    private final ConcurrentMap<String, Boolean> missingClasses = new ConcurrentHashMap<String, Boolean>();
+    private volatile BasePluginClassLoader[] unindexedLoaders = new BasePluginClassLoader[0];
 
     public PluginClassLoader() {
         super(new URL[0], PluginClassLoader.class.getClassLoader());
     }
 
-    public ClassLoader getLoader(String pluginName, URL url) {
+    public synchronized ClassLoader getLoader(String pluginName, URL url) {
         BasePluginClassLoader loader = loaders.get(pluginName);
         if (null == loader) {
             loader = new BasePluginClassLoader(new URL[] { url }, this);
-            loaders.put(pluginName, loader);
+            addLoader(pluginName, loader);
+        }
+        return loader;
+    }
+
+    /**
+     * Gets the loader for a plugin, creating it if needed
+     *
+     * @param file Jar file containing the plugin
+     * @param index Index of the jar
+     * @return ClassLoader for the plugin
+     * @throws MalformedURLException Thrown when the jar's path can't be used as a URL
+     */
+    synchronized ClassLoader getLoader(File file, JarIndex index) throws MalformedURLException {
+        PluginDescriptionFile description = index.getDescription();
+        BasePluginClassLoader loader = loaders.get(description.getName());
+        if (null == loader) {
+            loader = new BasePluginClassLoader(new URL[] { file.toURI().toURL() }, this, description);
+            loader.index(index);
+            loader.map(file);
+            addLoader(description.getName(), loader);
         }
         return loader;
     }
@@ -34,8 +90,100 @@ public class PluginClassLoader extends URLClassLoader {
         return loaders.containsKey(pluginName);
     }
 
-    public void removeLoader(String pluginName) {
-        loaders.remove(pluginName);
+    public synchronized void removeLoader(String pluginName) {
+        BasePluginClassLoader loader = loaders.remove(pluginName);
+
+        if (null != loader) {
+            for (String className : loader.classNames) {
+                classIndex.remove(className, loader);
+            }
+            loadersChanged();
+        }
+    }
+
+    /**
+     * Removes a plugin's loader if it is still registered and releases the jar
+     * it loads from, so it can no longer load classes
+     *
+     * @param pluginName Name of the plugin
+     * @param loader Loader of the plugin
+     */
+    public synchronized void releaseLoader(String pluginName, ClassLoader loader) {
+        if (loaders.get(pluginName) == loader) {
+            removeLoader(pluginName);
+        }
+
+        if (loader instanceof BasePluginClassLoader) {
+            ((BasePluginClassLoader) loader).release();
+        }
+    }
+
+    // Loaders are only added and removed while holding the lock on this, reads need no lock
+    private void addLoader(String pluginName, BasePluginClassLoader loader) {
+        loaders.put(pluginName, loader);
+
+        for (String className : loader.classNames) {
+            // The first plugin to provide a class owns it, as when every loader was searched in order
+            classIndex.putIfAbsent(className, loader);
+        }
+        loadersChanged();
+    }
+
+    private void loadersChanged() {
+        List<BasePluginClassLoader> unindexed = new ArrayList<BasePluginClassLoader>();
+
+        for (BasePluginClassLoader loader : loaders.values()) {
+            loader.dependencies = null;
+            if (!loader.indexComplete) {
+                unindexed.add(loader);
+            }
+        }
+
+        unindexedLoaders = unindexed.toArray(new BasePluginClassLoader[unindexed.size()]);
+    }
+
+    /**
+     * Checks if a plugin may use the classes of another plugin
+     *
+     * @param child Loader of the plugin looking up a class, or null
+     * @param owner Loader of the plugin which has the class
+     * @return true if child declares a direct or indirect dependency on owner
+     */
+    private boolean canAccess(BasePluginClassLoader child, BasePluginClassLoader owner) {
+        if (null == child || null == child.description || null == owner.description) {
+            return true;
+        }
+
+        Set<String> dependencies = child.dependencies;
+        if (null == dependencies) {
+            dependencies = dependencyClosure(child.description);
+            child.dependencies = dependencies;
+        }
+
+        return dependencies.contains(owner.description.getName());
+    }
+
+    private Set<String> dependencyClosure(PluginDescriptionFile description) {
+        Set<String> closure = new HashSet<String>();
+        LinkedList<String> pending = new LinkedList<String>();
+
+        pending.addAll(description.getDepend());
+        pending.addAll(description.getSoftDepend());
+
+        while (!pending.isEmpty()) {
+            String pluginName = pending.removeFirst();
+
+            if (closure.add(pluginName)) {
+                BasePluginClassLoader loader = loaders.get(pluginName);
+
+                if (null != loader && null != loader.description) {
+                    pending.addAll(loader.description.getDepend());
+                    pending.addAll(loader.description.getSoftDepend());
+                }
+            }
+        }
+
+        return closure;
     }
 
     /**
@@ -52,7 +200,7 @@ public class PluginClassLoader extends URLClassLoader {
         Class c = findLoadedClass(name);
 
         // if not loaded, search the local (child) resources
-        if (null == c && null != child) {
+        if (null == c && null != child && child.mayContain(name)) {
             try {
                 c = child.loadClass(name, resolve, true);
             } catch(ClassNotFoundException e) {
@@ -60,11 +208,23 @@ public class PluginClassLoader extends URLClassLoader {
             }
         }
 
+        // then the plugin which owns the class, if this plugin depends on it
+        if (null == c) {
+            BasePluginClassLoader owner = classIndex.get(name);
+
+            if (null != owner && owner != child && canAccess(child, owner)) {
+                try {
+                    c = owner.loadClass(name, resolve, true);
+                } catch(ClassNotFoundException e) {
+                    // Ignore
+                }
+            }
+        }
+
+        // then any dependencies whose classes could not all be indexed
         if (null == c) {
-            // TODO: only look at declared dependency loaders
-            for (Map.Entry<String,BasePluginClassLoader> entry : loaders.entrySet()) {
-                BasePluginClassLoader loader = entry.getValue();
-                if (child.equals(loader)) {
+            for (BasePluginClassLoader loader : unindexedLoaders) {
+                if (loader == child || !canAccess(child, loader)) {
                     continue;
                 }
 
@@ -78,10 +238,19 @@ public class PluginClassLoader extends URLClassLoader {
         }
 
         // if we could not find it, delegate to parent
-        // Note that we don't attempt to catch any ClassNotFoundException
         if (null == c) {
-            ClassLoader parent = getParent();
-            c = (null != parent) ? parent.loadClass(name) : getSystemClassLoader().loadClass(name);
+            if (missingClasses.containsKey(name)) {
+                throw new ClassNotFoundException(name);
+            }
+
+            try {
+                ClassLoader parent = getParent();
+                c = (null != parent) ? parent.loadClass(name) : getSystemClassLoader().loadClass(name);
+            } catch (ClassNotFoundException e) {
+                // The server's classes don't change, so don't search for this again
+                missingClasses.put(name, Boolean.TRUE);
+                throw e;
+            }
         }
 
         if (resolve) {
@@ -91,9 +260,243 @@ public class PluginClassLoader extends URLClassLoader {
         return c;
     }
 
-    public class BasePluginClassLoader extends URLClassLoader {
+    public static class BasePluginClassLoader extends URLClassLoader {
+        static {
+            // Java 7+ only, earlier JVMs lock the whole loader but the per-name locks keep loading safe
+            try {
+                Method register = ClassLoader.class.getDeclaredMethod("registerAsParallelCapable");
+
+                register.invoke(null);
+            } catch (Exception ex) {
+                // Not supported
+            }
+        }
+
+        private final ConcurrentMap<String, Object> loadingLocks = new ConcurrentHashMap<String, Object>();
+        private final PluginDescriptionFile description;
+        private final Set<String> classNames = new HashSet<String>();
+        private Set<String> entries = null;
+        private volatile MappedJar jar = null;
+        private CodeSource codeSource = null;
+        private boolean indexComplete = false;
+        private volatile Set<String> dependencies = null;
+        private final EventExecutorFactory.ExecutorCache executors = new EventExecutorFactory.ExecutorCache();
+
         public BasePluginClassLoader(final URL[] urls, final ClassLoader parent) {
+            this(urls, parent, null);
+        }
+
+        public BasePluginClassLoader(final URL[] urls, final ClassLoader parent, final PluginDescriptionFile description) {
             super(urls, parent);
+            this.description = description;
+        }
+
+        /**
+         * Sets the classes and resources in the plugin's jar
+         *
+         * @param index Index of the plugin's jar
+         */
+        private void index(JarIndex index) {
+            entries = index.getEntries();
+            for (String entryName : entries) {
+                if (entryName.endsWith(".class")) {
+                    classNames.add(entryName.substring(0, entryName.length() - 6).replace('/', '.'));
+                }
+            }
+
+            // Jars on the manifest Class-Path are also searched, so their classes aren't known
+            indexComplete = !index.hasClassPath();
+        }
+
+        /**
+         * Maps the plugin's jar into memory, so its classes and resources are
+         * read from the mapping instead of through the jar's URL
+         *
+         * @param file Jar file of the plugin
+         */
+        private void map(File file) {
+            try {
+                MappedJar mapped = new MappedJar(file);
+
+                // Signed jars need their certificates checked, which only the URL loader does
+                if (!mapped.isSigned()) {
+                    codeSource = new CodeSource(getURLs()[0], (Certificate[]) null);
+                    jar = mapped;
+                }
+            } catch (IOException ex) {
+                // Load from the URL instead
+            }
+        }
+
+        /**
+         * Defines a generated class in this loader, so it shares the runtime
+         * package of the plugin's classes and may use their package-private
+         * members
+         *
+         * @param name Binary name of the class
+         * @param bytes Class file
+         * @return Defined class
+         */
+        Class<?> defineGeneratedClass(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+
+        /**
+         * Gets the executors generated for the listeners of this plugin. They
+         * are kept here so they live exactly as long as this loader
+         *
+         * @return Executor cache of this loader
+         */
+        EventExecutorFactory.ExecutorCache getExecutors() {
+            return executors;
+        }
+
+        /**
+         * Releases the jar this loader reads from. Classes which were already
+         * loaded keep working, but no new classes or resources can be loaded
+         */
+        private void release() {
+            jar = null;
+
+            // URLClassLoader can only close its jars from Java 7
+            try {
+                URLClassLoader.class.getMethod("close").invoke(this);
+            } catch (Exception ex) {
+                // Not supported, the jars are closed once the loader is collected
+            }
+        }
+
+        /**
+         * Gets the mapping of the plugin's jar, dropping it if the jar was
+         * replaced or overwritten since it was mapped
+         *
+         * @return Mapped jar, or null to read from the jar's URL
+         */
+        private MappedJar getMappedJar() {
+            MappedJar mapped = jar;
+
+            if (null != mapped && !mapped.isUnchanged()) {
+                jar = null;
+                return null;
+            }
+
+            return mapped;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            MappedJar mapped = getMappedJar();
+
+            if (null != mapped) {
+                ByteBuffer bytes = null;
+
+                try {
+                    bytes = mapped.getBuffer(name.replace('.', '/').concat(".class"));
+                } catch (IOException ex) {
+                    throw new ClassNotFoundException(name, ex);
+                } catch (InternalError ex) {
+                    // The jar was truncated after the check above, use its URL from now on
+                    jar = null;
+                    return super.findClass(name);
+                }
+
+                if (null != bytes) {
+                    int index = name.lastIndexOf('.');
+
+                    if (-1 != index) {
+                        definePackage(name.substring(0, index), mapped.getManifest());
+                    }
+
+                    return defineClass(name, bytes, codeSource);
+                }
+            }
+
+            return super.findClass(name);
+        }
+
+        private void definePackage(String packageName, Manifest manifest) {
+            if (null != getPackage(packageName)) {
+                return;
+            }
+
+            try {
+                if (null != manifest) {
+                    definePackage(packageName, manifest, codeSource.getLocation());
+                } else {
+                    definePackage(packageName, null, null, null, null, null, null, null);
+                }
+            } catch (IllegalArgumentException ex) {
+                // Defined by another thread in the meantime
+            }
+        }
+
+        @Override
+        public InputStream getResourceAsStream(String name) {
+            // Resources from the server take precedence, as with getResource
+            MappedJar mapped = getMappedJar();
+
+            if (null != mapped && mapped.contains(name) && null == getParent().getResource(name)) {
+                try {
+                    return mapped.getInputStream(name);
+                } catch (IOException ex) {
+                    // Try the URL instead
+                }
+            }
+
+            return super.getResourceAsStream(name);
+        }
+
+        /**
+         * Gets the lock held while loading a class, so different classes can be
+         * loaded at the same time but a class is never defined twice
+         *
+         * @param name Name of the class
+         * @return Lock for the class name
+         */
+        private Object getLoadingLock(String name) {
+            Object lock = loadingLocks.get(name);
+
+            if (null == lock) {
+                Object newLock = new Object();
+
+                lock = loadingLocks.putIfAbsent(name, newLock);
+                if (null == lock) {
+                    lock = newLock;
+                }
+            }
+
+            return lock;
+        }
+
+        /**
+         * Checks if a class may be found in this plugin
+         *
+         * @param name Name of the class
+         * @return false if the class is definitely not in this plugin
+         */
+        private boolean mayContain(String name) {
+            return !indexComplete || classNames.contains(name);
+        }
+
+        /**
+         * Checks if a resource may be found in this plugin
+         *
+         * @param name Name of the resource
+         * @return false if the resource is definitely not in this plugin
+         */
+        private boolean mayContainResource(String name) {
+            // The jar also finds directories named without the trailing slash
+            return !indexComplete || null == entries || entries.contains(name) || entries.contains(name + "/");
+        }
+
+        @Override
+        public URL findResource(String name) {
+            return mayContainResource(name) ? super.findResource(name) : null;
+        }
+
+        @Override
+        public Enumeration<URL> findResources(String name) throws IOException {
+            return mayContainResource(name) ? super.findResources(name) : Collections.enumeration(Collections.<URL>emptyList());
         }
 
         /**
@@ -110,7 +513,17 @@ public class PluginClassLoader extends URLClassLoader {
             Class c = findLoadedClass(name);
 
             if (null == c) {
-                c = (localOnly) ? findClass(name) : ((PluginClassLoader) getParent()).loadClass(name, resolve, this);
+                if (localOnly) {
+                    synchronized (getLoadingLock(name)) {
+                        // Recheck as another thread may have defined it while we waited
+                        c = findLoadedClass(name);
+                        if (null == c) {
+                            c = findClass(name);
+                        }
+                    }
+                } else {
+                    c = ((PluginClassLoader) getParent()).loadClass(name, resolve, this);
+                }
             }
 
             if (resolve) {
@@ -40,6 +40,45 @@ public interface BukkitScheduler {
      */
     public int scheduleSyncRepeatingTask(Plugin plugin, Runnable task, long delay, long period);
 
+    /**
+     * Schedules a deferrable once off task to occur after a delay
+     * This task will be executed by the main server thread
+     *
+     * Once the sync tasks run in a tick have used up the tick budget, deferrable
+     * tasks which are due are left for the following ticks instead of running
+     * late in the tick. Non-deferrable tasks always run when they are due.
+     *
+     * @param Plugin Plugin that owns the task
+     * @param Runnable Task to be executed
+     * @param long Delay in server ticks before executing task
+     * @return int Task id number (-1 if scheduling failed)
+     */
+    public int scheduleSyncDeferrableTask(Plugin plugin, Runnable task, long delay);
+
+    /**
+     * Schedules a deferrable once off task to occur as soon as the tick budget allows
+     * This task will be executed by the main server thread
+     *
+     * @param Plugin Plugin that owns the task
+     * @param Runnable Task to be executed
+     * @return int Task id number (-1 if scheduling failed)
+     */
+    public int scheduleSyncDeferrableTask(Plugin plugin, Runnable task);
+
+    /**
+     * Schedules a deferrable repeating task
+     * This task will be executed by the main server thread
+     *
+     * A deferred run of a repeating task doesn't move its later runs.
+     *
+     * @param Plugin Plugin that owns the task
+     * @param Runnable Task to be executed
+     * @param long Delay in server ticks before executing first repeat
+     * @param long Period in server ticks of the task
+     * @return int Task id number (-1 if scheduling failed)
+     */
+    public int scheduleSyncDeferrableRepeatingTask(Plugin plugin, Runnable task, long delay, long period);
+
     /**
      * Schedules a once off task to occur after a delay
      * This task will be executed by a thread managed by the scheduler
@@ -86,6 +125,28 @@ public interface BukkitScheduler {
      */
     public <T> Future<T> callSyncMethod(Plugin plugin, Callable<T> task);
 
+    /**
+     * Starts a chain of tasks with a task executed by a thread managed by the scheduler
+     *
+     * Implementations may return TaskChain.supplyAsync(this, plugin, task)
+     *
+     * @param Plugin Plugin that owns the tasks
+     * @param Callable Task to be executed
+     * @return TaskChain First step of the chain, used to add the following steps
+     */
+    public <T> TaskChain<T> supplyAsync(Plugin plugin, Callable<T> task);
+
+    /**
+     * Starts a chain of tasks with a task executed by the main server thread
+     *
+     * Implementations may return TaskChain.supplySync(this, plugin, task)
+     *
+     * @param Plugin Plugin that owns the tasks
+     * @param Callable Task to be executed
+     * @return TaskChain First step of the chain, used to add the following steps
+     */
+    public <T> TaskChain<T> supplySync(Plugin plugin, Callable<T> task);
+
     /**
      * Removes task from scheduler
      *
@@ -140,6 +201,31 @@ public interface BukkitScheduler {
      */
     public List<BukkitWorker> getActiveWorkers();
 
+    /**
+     * Returns the time the main thread has spent on the current tick so far.
+     *
+     * Sync tasks can use this to stop early and continue in a later tick.
+     *
+     * @return Time in nanoseconds, or 0 if no tick is running
+     */
+    public long getTickTimeUsed();
+
+    /**
+     * Returns the time sync tasks may use in a tick before deferrable tasks
+     * are left for later ticks.
+     *
+     * @return Time in nanoseconds
+     */
+    public long getTickBudget();
+
+    /**
+     * Sets the time sync tasks may use in a tick before deferrable tasks are
+     * left for later ticks. A tick lasts 50 milliseconds.
+     *
+     * @param budget Time in nanoseconds
+     */
+    public void setTickBudget(long budget);
+
     /**
      * Returns a list of all pending tasks.  The ordering of the tasks is not related to their order of execution.
      *
@@ -28,4 +28,42 @@ public interface BukkitTask {
      * @return true if the task is run by main thread
      */
     public boolean isSync();
+
+    /**
+     * Returns true if the Task may be left for a later tick once the tick
+     * budget is used up
+     *
+     * @return true if the task is deferrable
+     */
+    public boolean isDeferrable();
+
+    /**
+     * Returns the number of times the Task was left for a later tick because
+     * the tick budget was used up
+     *
+     * @return Number of deferrals
+     */
+    public int getDeferrals();
+
+    /**
+     * Returns the number of times the Task was still running when the tick
+     * budget ran out
+     *
+     * @return Number of overruns
+     */
+    public int getOverruns();
+
+    /**
+     * Returns the time the Task took the last time it ran
+     *
+     * @return Time in nanoseconds, or 0 if it hasn't run
+     */
+    public long getLastRunTime();
+
+    /**
+     * Returns the time the Task has taken over all of its runs
+     *
+     * @return Time in nanoseconds
+     */
+    public long getTotalRunTime();
 }
@@ -0,0 +1,19 @@
+package org.bukkit.scheduler;
+
+/**
+ * A step of a {@link TaskChain}, which is given the result of the step before it
+ *
+ * @param <T> Result of the step before
+ * @param <R> Result of this step
+ */
+public interface ChainedTask<T, R> {
+
+    /**
+     * Runs the step
+     *
+     * @param value Result of the step before
+     * @return Result of this step
+     * @throws Exception Thrown when the step fails, which fails the rest of the chain
+     */
+    public R call(T value) throws Exception;
+}
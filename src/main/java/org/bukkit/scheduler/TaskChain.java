@@ -0,0 +1,473 @@
+package org.bukkit.scheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.bukkit.plugin.Plugin;
+
+/**
+ * A chain of tasks which alternate between the main thread and the
+ * scheduler's async workers, each given the result of the one before.
+ *
+ * Each step is only scheduled once the step before it has finished, so no
+ * thread waits for another. For example, loading data asynchronously and then
+ * using it on the main thread:
+ *
+ * <pre>scheduler.supplyAsync(plugin, loadStats)
+ *     .thenSync(showStats)
+ *     .exceptionally(reportError);</pre>
+ *
+ * A failed step skips the steps after it up to the next exceptionally step.
+ * Each step is also the {@link BukkitTask} handle of its scheduled task, and
+ * cancelling any step of a chain with {@link #cancel(boolean)} cancels the
+ * steps before and after it. A chain whose tasks are removed because its
+ * plugin was disabled is cancelled the next time it is queried.
+ *
+ * @param <T> Result of this step
+ */
+public final class TaskChain<T> implements Future<T>, BukkitTask {
+    private static final int PENDING = 0;
+    private static final int SUCCEEDED = 1;
+    private static final int FAILED = 2;
+    private static final int CANCELLED = 3;
+    private static final long POLL_INTERVAL = 50;
+
+    private final BukkitScheduler scheduler;
+    private final Plugin plugin;
+    private final TaskChain<?> previous;
+    private final List<TaskChain<?>> next = new ArrayList<TaskChain<?>>();
+    private int state = PENDING;
+    private T result = null;
+    private Throwable failure = null;
+    private int taskId = -1;
+    private Runnable continuation = null;
+    private volatile boolean started = false;
+    private boolean sync = false;
+    private volatile long runTime = 0;
+
+    private TaskChain(BukkitScheduler scheduler, Plugin plugin, TaskChain<?> previous) {
+        this.scheduler = scheduler;
+        this.plugin = plugin;
+        this.previous = previous;
+    }
+
+    /**
+     * Starts a chain with a task run by an async worker
+     *
+     * @param scheduler Scheduler to run the tasks of the chain
+     * @param plugin Plugin that owns the tasks
+     * @param task Task to be executed
+     * @return The first step of the chain
+     */
+    public static <T> TaskChain<T> supplyAsync(BukkitScheduler scheduler, Plugin plugin, Callable<T> task) {
+        TaskChain<T> chain = new TaskChain<T>(scheduler, plugin, null);
+
+        chain.schedule(false, new CallableStep<T>(task), null);
+        return chain;
+    }
+
+    /**
+     * Starts a chain with a task run by the main thread
+     *
+     * @param scheduler Scheduler to run the tasks of the chain
+     * @param plugin Plugin that owns the tasks
+     * @param task Task to be executed
+     * @return The first step of the chain
+     */
+    public static <T> TaskChain<T> supplySync(BukkitScheduler scheduler, Plugin plugin, Callable<T> task) {
+        TaskChain<T> chain = new TaskChain<T>(scheduler, plugin, null);
+
+        chain.schedule(true, new CallableStep<T>(task), null);
+        return chain;
+    }
+
+    /**
+     * Adds a step run by the main thread once this step succeeds
+     *
+     * @param task Task to be executed with the result of this step
+     * @return The added step
+     */
+    public <R> TaskChain<R> thenSync(ChainedTask<? super T, R> task) {
+        return then(true, task);
+    }
+
+    /**
+     * Adds a step run by an async worker once this step succeeds
+     *
+     * @param task Task to be executed with the result of this step
+     * @return The added step
+     */
+    public <R> TaskChain<R> thenAsync(ChainedTask<? super T, R> task) {
+        return then(false, task);
+    }
+
+    /**
+     * Adds a step run by the main thread if this step or one before it fails.
+     * Its result replaces the failure, if this step succeeds the result is
+     * passed on unchanged.
+     *
+     * @param handler Task to be executed with the cause of the failure
+     * @return The added step
+     */
+    public TaskChain<T> exceptionally(final ChainedTask<Throwable, ? extends T> handler) {
+        final TaskChain<T> chain = new TaskChain<T>(scheduler, plugin, this);
+
+        addNext(chain, new Runnable() {
+            public void run() {
+                if (state == SUCCEEDED) {
+                    chain.succeed(result);
+                } else if (state == CANCELLED) {
+                    chain.cancel(false);
+                } else {
+                    chain.schedule(true, handler, failure);
+                }
+            }
+        });
+        return chain;
+    }
+
+    private <R> TaskChain<R> then(final boolean sync, final ChainedTask<? super T, R> task) {
+        final TaskChain<R> chain = new TaskChain<R>(scheduler, plugin, this);
+
+        addNext(chain, new Runnable() {
+            public void run() {
+                if (state == SUCCEEDED) {
+                    chain.schedule(sync, task, result);
+                } else if (state == CANCELLED) {
+                    chain.cancel(false);
+                } else {
+                    chain.fail(failure);
+                }
+            }
+        });
+        return chain;
+    }
+
+    /**
+     * Registers a step to continue with once this step is done, or continues
+     * with it straight away if this step is already done
+     */
+    private void addNext(TaskChain<?> chain, Runnable continuation) {
+        synchronized (this) {
+            if (state == PENDING) {
+                next.add(chain);
+                chain.continuation = continuation;
+                return;
+            }
+        }
+
+        continuation.run();
+    }
+
+    private <V> void schedule(boolean sync, final ChainedTask<V, ? extends T> task, final V value) {
+        Runnable runnable = new Runnable() {
+            public void run() {
+                started = true;
+
+                synchronized (TaskChain.this) {
+                    if (state != PENDING) {
+                        return;
+                    }
+                }
+
+                long start = System.nanoTime();
+                T result;
+
+                try {
+                    result = task.call(value);
+                } catch (Throwable ex) {
+                    runTime = System.nanoTime() - start;
+                    fail(ex);
+                    return;
+                }
+
+                runTime = System.nanoTime() - start;
+                succeed(result);
+            }
+        };
+
+        synchronized (this) {
+            this.sync = sync;
+        }
+
+        int id = sync ? scheduler.scheduleSyncDelayedTask(plugin, runnable) : scheduler.scheduleAsyncDelayedTask(plugin, runnable);
+
+        if (id == -1) {
+            fail(new IllegalStateException("Could not schedule task for " + plugin.getDescription().getFullName()));
+            return;
+        }
+
+        synchronized (this) {
+            if (state == PENDING) {
+                taskId = id;
+            }
+        }
+    }
+
+    private void succeed(T value) {
+        complete(SUCCEEDED, value, null);
+    }
+
+    private void fail(Throwable cause) {
+        complete(FAILED, null, cause);
+    }
+
+    private boolean complete(int newState, T value, Throwable cause) {
+        List<TaskChain<?>> waiting;
+
+        synchronized (this) {
+            if (state != PENDING) {
+                return false;
+            }
+
+            state = newState;
+            result = value;
+            failure = cause;
+            taskId = -1;
+            waiting = new ArrayList<TaskChain<?>>(next);
+            next.clear();
+            notifyAll();
+        }
+
+        for (TaskChain<?> chain : waiting) {
+            chain.continuation.run();
+        }
+        return true;
+    }
+
+    /**
+     * Gets the id of the scheduled task running this step
+     *
+     * The chain must be cancelled with {@link #cancel(boolean)}, not by
+     * cancelling this task through the scheduler, which would leave the chain
+     * waiting forever. Only tasks removed because the plugin was disabled are
+     * noticed, the next time the chain is queried.
+     *
+     * @return Task id number, or -1 if the step isn't scheduled
+     */
+    public int getTaskId() {
+        checkScheduled();
+
+        synchronized (this) {
+            return taskId;
+        }
+    }
+
+    /**
+     * Cancels the chain if the task of the step currently scheduled, this one
+     * or one before it, was removed from the scheduler without running
+     * because its plugin was disabled
+     */
+    private void checkScheduled() {
+        for (TaskChain<?> step = this; step != null; step = step.previous) {
+            if (step.checkTask()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Checks if the task of this step was removed from the scheduler without
+     * running because its plugin was disabled, cancelling the chain if so.
+     *
+     * A sync task is taken off the queue some time before it starts, for as
+     * long as the tasks run before it in the same tick take, so a missing
+     * task alone doesn't mean it was removed.
+     *
+     * @return true if this step is scheduled or done, so the steps before it
+     *     don't need to be checked
+     */
+    private boolean checkTask() {
+        int id;
+
+        synchronized (this) {
+            if (state != PENDING) {
+                return true;
+            }
+            if (taskId == -1) {
+                return false;
+            }
+            if (started) {
+                return true;
+            }
+            id = taskId;
+        }
+
+        if (!plugin.isEnabled() && !started && !scheduler.isQueued(id) && !scheduler.isCurrentlyRunning(id)) {
+            cancel(false);
+        }
+        return true;
+    }
+
+    /**
+     * Gets the plugin that owns the tasks of this chain
+     *
+     * @return Owner of the tasks
+     */
+    public Plugin getOwner() {
+        return plugin;
+    }
+
+    /**
+     * Checks if this step runs on the main thread
+     *
+     * @return true if the step is run by the main thread
+     */
+    public synchronized boolean isSync() {
+        return sync;
+    }
+
+    /**
+     * Steps are never deferred
+     *
+     * @return false
+     */
+    public boolean isDeferrable() {
+        return false;
+    }
+
+    public int getDeferrals() {
+        return 0;
+    }
+
+    public int getOverruns() {
+        return 0;
+    }
+
+    /**
+     * Gets the time this step took to run
+     *
+     * @return Time in nanoseconds, or 0 if it hasn't run
+     */
+    public long getLastRunTime() {
+        return runTime;
+    }
+
+    /**
+     * Gets the time this step took to run, a step only runs once
+     *
+     * @return Time in nanoseconds, or 0 if it hasn't run
+     */
+    public long getTotalRunTime() {
+        return runTime;
+    }
+
+    /**
+     * Cancels this step, the steps before it which haven't finished yet, and
+     * every step after it
+     *
+     * @param mayInterruptIfRunning Ignored, a step which is already running is
+     *     never interrupted
+     * @return false if this step was already done
+     */
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        int id;
+
+        synchronized (this) {
+            id = taskId;
+        }
+
+        // The steps after this one are cancelled as it completes
+        if (!complete(CANCELLED, null, null)) {
+            return false;
+        }
+
+        if (id != -1) {
+            scheduler.cancelTask(id);
+        }
+
+        if (previous != null) {
+            previous.cancel(mayInterruptIfRunning);
+        }
+
+        return true;
+    }
+
+    public boolean isCancelled() {
+        checkScheduled();
+
+        synchronized (this) {
+            return state == CANCELLED;
+        }
+    }
+
+    public boolean isDone() {
+        checkScheduled();
+
+        synchronized (this) {
+            return state != PENDING;
+        }
+    }
+
+    /**
+     * Waits for this step to finish and returns its result
+     *
+     * Note: This must NOT be called from the main thread if any step up to
+     * this one runs on it
+     *
+     * @return Result of this step
+     */
+    public T get() throws InterruptedException, ExecutionException {
+        while (true) {
+            checkScheduled();
+
+            synchronized (this) {
+                if (state != PENDING) {
+                    return getResult();
+                }
+                wait(POLL_INTERVAL);
+            }
+        }
+    }
+
+    public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        long end = System.nanoTime() + unit.toNanos(timeout);
+
+        while (true) {
+            checkScheduled();
+
+            synchronized (this) {
+                if (state != PENDING) {
+                    return getResult();
+                }
+
+                long remaining = end - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new TimeoutException();
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(POLL_INTERVAL)));
+            }
+        }
+    }
+
+    private synchronized T getResult() throws ExecutionException {
+        if (state == CANCELLED) {
+            throw new CancellationException();
+        } else if (state == FAILED) {
+            throw new ExecutionException(failure);
+        }
+
+        return result;
+    }
+
+    /**
+     * Runs the callable starting a chain
+     */
+    private static class CallableStep<T> implements ChainedTask<Object, T> {
+        private final Callable<T> task;
+
+        public CallableStep(Callable<T> task) {
+            this.task = task;
+        }
+
+        public T call(Object value) throws Exception {
+            return task.call();
+        }
+    }
+}
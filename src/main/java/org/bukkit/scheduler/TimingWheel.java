@@ -0,0 +1,326 @@
+package org.bukkit.scheduler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bukkit.plugin.Plugin;
+
+/**
+ * A hierarchical timing wheel for scheduler implementations, holding tasks
+ * until the tick they are due.
+ *
+ * Scheduling and cancelling a task take constant time, however many tasks are
+ * pending, and the tasks of a plugin are linked together so cancelling them
+ * only visits that plugin's tasks. Each wheel has 64 slots of 64 times the
+ * length of the wheel below it. Tasks far in the future wait in the outer
+ * wheels and move inwards as their tick gets closer.
+ *
+ * A timing wheel is not thread-safe; it should only be used by the thread
+ * running the ticks, or under a lock.
+ *
+ * @param <T> Task
+ */
+public final class TimingWheel<T> {
+    private static final int BITS = 6;
+    private static final int SLOTS = 1 << BITS;
+    private static final int MASK = SLOTS - 1;
+    private static final int LEVELS = 6;
+
+    private final Entry<T>[][] wheels;
+    private final Map<Plugin, Entry<T>> owners = new HashMap<Plugin, Entry<T>>();
+    private long currentTick;
+    private int size = 0;
+
+    public TimingWheel() {
+        this(0);
+    }
+
+    /**
+     * Creates a timing wheel starting at a tick
+     *
+     * @param currentTick Current tick
+     */
+    @SuppressWarnings("unchecked")
+    public TimingWheel(long currentTick) {
+        this.currentTick = currentTick;
+        wheels = new Entry[LEVELS][SLOTS];
+
+        for (int level = 0; level < LEVELS; level++) {
+            for (int slot = 0; slot < SLOTS; slot++) {
+                Entry<T> head = new Entry<T>(null, null, 0);
+
+                head.previous = head;
+                head.next = head;
+                wheels[level][slot] = head;
+            }
+        }
+    }
+
+    /**
+     * Gets the current tick
+     *
+     * @return Current tick
+     */
+    public long getCurrentTick() {
+        return currentTick;
+    }
+
+    /**
+     * Gets the number of pending tasks
+     *
+     * @return Number of tasks
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Schedules a task to be due after a number of ticks
+     *
+     * @param owner Plugin owning the task
+     * @param task Task to schedule
+     * @param delay Delay in ticks, at least 1 tick is used. Delays which
+     *     would pass the last tick are cut short to it.
+     * @return Entry of the task, used to cancel it
+     */
+    public Entry<T> schedule(Plugin owner, T task, long delay) {
+        delay = Math.max(1, delay);
+        long deadline = (currentTick > 0 && delay > Long.MAX_VALUE - currentTick) ? Long.MAX_VALUE : currentTick + delay;
+        Entry<T> entry = new Entry<T>(owner, task, deadline);
+
+        insert(entry);
+        size++;
+
+        entry.ownerNext = owners.put(owner, entry);
+        if (entry.ownerNext != null) {
+            entry.ownerNext.ownerPrevious = entry;
+        }
+
+        return entry;
+    }
+
+    /**
+     * Cancels a pending task
+     *
+     * @param entry Entry of the task
+     * @return false if the task was not pending
+     */
+    public boolean cancel(Entry<T> entry) {
+        if (entry.next == null) {
+            return false;
+        }
+
+        unlink(entry);
+        unlinkOwner(entry);
+        size--;
+        return true;
+    }
+
+    /**
+     * Cancels every pending task of a plugin
+     *
+     * @param owner Plugin owning the tasks
+     * @return Tasks which were cancelled
+     */
+    public List<T> cancelAll(Plugin owner) {
+        Entry<T> entry = owners.remove(owner);
+
+        if (entry == null) {
+            return Collections.emptyList();
+        }
+
+        List<T> cancelled = new ArrayList<T>();
+
+        while (entry != null) {
+            Entry<T> next = entry.ownerNext;
+
+            unlink(entry);
+            entry.ownerPrevious = null;
+            entry.ownerNext = null;
+            cancelled.add(entry.task);
+            size--;
+            entry = next;
+        }
+
+        return cancelled;
+    }
+
+    /**
+     * Gets the pending tasks of a plugin
+     *
+     * @param owner Plugin owning the tasks
+     * @return Pending tasks
+     */
+    public List<T> getTasks(Plugin owner) {
+        List<T> tasks = new ArrayList<T>();
+
+        for (Entry<T> entry = owners.get(owner); entry != null; entry = entry.ownerNext) {
+            tasks.add(entry.task);
+        }
+
+        return tasks;
+    }
+
+    /**
+     * Moves to the next tick and removes the tasks due on it
+     *
+     * @return Tasks which are due
+     */
+    public List<T> advance() {
+        currentTick++;
+
+        // Move the tasks of the outer wheels whose slot has come around inwards
+        for (int level = 1; level < LEVELS; level++) {
+            if ((currentTick & ((1L << (BITS * level)) - 1)) != 0) {
+                break;
+            }
+
+            Entry<T> head = wheels[level][(int) (currentTick >>> (BITS * level)) & MASK];
+            Entry<T> entry = detach(head);
+
+            while (entry != head) {
+                Entry<T> next = entry.next;
+
+                insert(entry);
+                entry = next;
+            }
+        }
+
+        Entry<T> head = wheels[0][(int) currentTick & MASK];
+        if (head.next == head) {
+            return Collections.emptyList();
+        }
+
+        List<T> due = new ArrayList<T>();
+        Entry<T> entry = detach(head);
+
+        while (entry != head) {
+            Entry<T> next = entry.next;
+
+            entry.previous = null;
+            entry.next = null;
+            unlinkOwner(entry);
+            due.add(entry.task);
+            size--;
+            entry = next;
+        }
+
+        return due;
+    }
+
+    private void insert(Entry<T> entry) {
+        // The highest bit which differs picks the wheel, a negative distance
+        // means the sign bit differs
+        long distance = entry.deadline ^ currentTick;
+        int level = 0;
+
+        while (level < LEVELS - 1 && (distance < 0 || distance >= SLOTS)) {
+            distance >>>= BITS;
+            level++;
+        }
+
+        Entry<T> head = wheels[level][(int) (entry.deadline >>> (BITS * level)) & MASK];
+
+        entry.previous = head.previous;
+        entry.next = head;
+        head.previous.next = entry;
+        head.previous = entry;
+    }
+
+    /**
+     * Empties a slot, returning its first entry. The entries stay linked to
+     * each other and the last one links back to the head.
+     */
+    private Entry<T> detach(Entry<T> head) {
+        Entry<T> first = head.next;
+
+        head.previous.next = head;
+        head.next = head;
+        head.previous = head;
+        return first;
+    }
+
+    private void unlink(Entry<T> entry) {
+        entry.previous.next = entry.next;
+        entry.next.previous = entry.previous;
+        entry.previous = null;
+        entry.next = null;
+    }
+
+    private void unlinkOwner(Entry<T> entry) {
+        if (entry.ownerPrevious != null) {
+            entry.ownerPrevious.ownerNext = entry.ownerNext;
+        } else if (entry.ownerNext != null) {
+            owners.put(entry.owner, entry.ownerNext);
+        } else {
+            owners.remove(entry.owner);
+        }
+
+        if (entry.ownerNext != null) {
+            entry.ownerNext.ownerPrevious = entry.ownerPrevious;
+        }
+
+        entry.ownerPrevious = null;
+        entry.ownerNext = null;
+    }
+
+    /**
+     * A task held by a timing wheel
+     *
+     * @param <T> Task
+     */
+    public static final class Entry<T> {
+        private final Plugin owner;
+        private final T task;
+        private final long deadline;
+        private Entry<T> previous;
+        private Entry<T> next;
+        private Entry<T> ownerPrevious;
+        private Entry<T> ownerNext;
+
+        private Entry(Plugin owner, T task, long deadline) {
+            this.owner = owner;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Gets the plugin owning the task
+         *
+         * @return Owner of the task
+         */
+        public Plugin getOwner() {
+            return owner;
+        }
+
+        /**
+         * Gets the task
+         *
+         * @return Task
+         */
+        public T getTask() {
+            return task;
+        }
+
+        /**
+         * Gets the tick the task is due on
+         *
+         * @return Tick the task is due on
+         */
+        public long getDeadline() {
+            return deadline;
+        }
+
+        /**
+         * Checks if the task is still waiting to be due
+         *
+         * @return true if the task is pending
+         */
+        public boolean isPending() {
+            return next != null;
+        }
+    }
+}
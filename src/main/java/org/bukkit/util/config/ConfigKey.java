@@ -0,0 +1,135 @@
+package org.bukkit.util.config;
+
+/**
+ * A handle to a value in a configuration, for values which are read often.
+ *
+ * The value is looked up the first time it is read and kept until the
+ * configuration is changed through setProperty, removeProperty or load, so
+ * reading an unchanged value doesn't walk the configuration or box numbers.
+ * Keys taken from a node returned by getNode or getNodes are looked up from
+ * the top of the configuration by their full path, so they see the values of
+ * a new load, but keys of nodes taken from a list keep reading that list's
+ * maps. Changes made directly to maps or lists taken from the configuration
+ * are not noticed.
+ *
+ * @param <T> Type of the value
+ */
+public final class ConfigKey<T> {
+    enum Type {
+        INT,
+        DOUBLE,
+        BOOLEAN,
+        STRING
+    }
+
+    private final ConfigurationNode node;
+    private final String path;
+    private final Type type;
+    private final T def;
+    private volatile Value<T> value = null;
+
+    ConfigKey(ConfigurationNode node, String path, Type type, T def) {
+        this.node = node;
+        this.path = path;
+        this.type = type;
+        this.def = def;
+    }
+
+    /**
+     * Gets the path of the value from the top of the configuration.
+     *
+     * @return path to node (dot notation)
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Gets the value, or the default if the configuration has no valid value.
+     *
+     * @return value or default
+     */
+    public T get() {
+        return resolve().object;
+    }
+
+    /**
+     * Gets the value of an integer or double key as an integer.
+     *
+     * @return value or default
+     */
+    public int intValue() {
+        return resolve().intValue;
+    }
+
+    /**
+     * Gets the value of an integer or double key as a double.
+     *
+     * @return value or default
+     */
+    public double doubleValue() {
+        return resolve().doubleValue;
+    }
+
+    /**
+     * Gets the value of a boolean key.
+     *
+     * @return value or default
+     */
+    public boolean booleanValue() {
+        return resolve().booleanValue;
+    }
+
+    private Value<T> resolve() {
+        Value<T> current = value;
+        int revision = node.revision.get();
+
+        if (current != null && current.revision == revision) {
+            return current;
+        }
+
+        current = new Value<T>(revision, lookup());
+        value = current;
+        return current;
+    }
+
+    @SuppressWarnings("unchecked")
+    private T lookup() {
+        switch (type) {
+        case INT:
+            return (T) Integer.valueOf(node.getInt(path, (Integer) def));
+
+        case DOUBLE:
+            return (T) Double.valueOf(node.getDouble(path, (Double) def));
+
+        case BOOLEAN:
+            return (T) Boolean.valueOf(node.getBoolean(path, (Boolean) def));
+
+        default:
+            return (T) node.getString(path, (String) def);
+        }
+    }
+
+    private static class Value<T> {
+        private final int revision;
+        private final T object;
+        private final int intValue;
+        private final double doubleValue;
+        private final boolean booleanValue;
+
+        public Value(int revision, T object) {
+            this.revision = revision;
+            this.object = object;
+
+            if (object instanceof Number) {
+                intValue = ((Number) object).intValue();
+                doubleValue = ((Number) object).doubleValue();
+            } else {
+                intValue = 0;
+                doubleValue = 0;
+            }
+
+            booleanValue = Boolean.TRUE.equals(object);
+        }
+    }
+}
@@ -5,11 +5,28 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import org.yaml.snakeyaml.DumperOptions;
 import org.yaml.snakeyaml.Yaml;
 import org.yaml.snakeyaml.constructor.SafeConstructor;
+import org.yaml.snakeyaml.error.YAMLException;
 import org.yaml.snakeyaml.reader.UnicodeReader;
 import org.yaml.snakeyaml.representer.Representer;
 
@@ -47,13 +64,33 @@ import org.yaml.snakeyaml.representer.Representer;
  * @author sk89q
  */
 public class Configuration extends ConfigurationNode {
+    private static final ScheduledExecutorService saver = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "Configuration Saver");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
     private Yaml yaml;
     private File file;
+    private final DumperOptions options;
+    private final Object saveLock = new Object();
+    private final Object writeLock = new Object();
+    private PendingSave pendingSave = null;
+    private PendingSave lastSave = null;
+    private long saveSequence = 0;
+    private long writtenSequence = 0;
+    private volatile long saveDelay = 1000;
+    private volatile long fileModified = -1;
+    private volatile long fileLength = -1;
+    private volatile boolean binarySnapshot = false;
+    private final List<ListenerRegistration> listeners = new CopyOnWriteArrayList<ListenerRegistration>();
 
     public Configuration(File file) {
         super(new HashMap<String, Object>());
 
-        DumperOptions options = new DumperOptions();
+        options = new DumperOptions();
 
         options.setIndent(4);
         options.setDefaultFlowStyle(DumperOptions.FlowStyle.BLOCK);
@@ -67,15 +104,142 @@ public class Configuration extends ConfigurationNode {
      * Loads the configuration file. All errors are thrown away.
      */
     public void load() {
-        FileInputStream stream = null;
-
         try {
-            stream = new FileInputStream(file);
-            read(yaml.load(new UnicodeReader(stream)));
+            root = readFile();
         } catch (IOException e) {
             root = new HashMap<String, Object>();
         } catch (ConfigurationException e) {
             root = new HashMap<String, Object>();
+        }
+
+        revision.incrementAndGet();
+    }
+
+    /**
+     * Loads the configuration file again, keeping every map whose path still
+     * leads to a map, and only changing the values which differ from the
+     * file. The listeners of the changed paths are called once the new values
+     * are in place.
+     *
+     * If the file can't be read or isn't valid YAML the current values are
+     * kept, and {@link #reloadIfModified()} won't try again until the file is
+     * changed again.
+     *
+     * @return true if the file was read
+     */
+    public boolean reload() {
+        Map<String, Object> values;
+
+        try {
+            values = readFile();
+        } catch (IOException e) {
+            return false;
+        } catch (ConfigurationException e) {
+            Logger.getLogger(Configuration.class.getName()).log(Level.WARNING, "Could not reload " + file + ": " + e.getMessage());
+            return false;
+        } catch (YAMLException e) {
+            Logger.getLogger(Configuration.class.getName()).log(Level.WARNING, "Could not reload " + file + ", it is not valid YAML", e);
+            return false;
+        }
+
+        List<Change> changes = new ArrayList<Change>();
+        merge(root, values, "", changes);
+
+        if (!changes.isEmpty()) {
+            revision.incrementAndGet();
+
+            for (Change change : changes) {
+                for (ListenerRegistration registration : listeners) {
+                    if (registration.matches(change.path)) {
+                        registration.listener.onChange(change.path, change.oldValue, change.newValue);
+                    }
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Reloads the configuration file if it was changed since it was last
+     * loaded or saved. This is cheap enough to be called from a repeating
+     * task to pick up changes made by hand.
+     *
+     * @return true if the file was changed and reloaded
+     */
+    public boolean reloadIfModified() {
+        if (file.lastModified() == fileModified && file.length() == fileLength) {
+            return false;
+        }
+
+        return reload();
+    }
+
+    void addListener(String path, ConfigurationListener listener) {
+        listeners.add(new ListenerRegistration(path, listener));
+    }
+
+    void removeListener(ConfigurationListener listener) {
+        for (ListenerRegistration registration : listeners) {
+            if (registration.listener == listener) {
+                listeners.remove(registration);
+            }
+        }
+    }
+
+    /**
+     * Sets whether a binary snapshot of this configuration is kept next to
+     * its file. Loading reads the snapshot instead of parsing the file as long
+     * as the file hasn't changed since the snapshot was made, and large
+     * sections are only decoded when they are used. This is meant for large
+     * configurations, which take a long time to parse.
+     *
+     * @param binarySnapshot true to keep a snapshot
+     */
+    public void setBinarySnapshot(boolean binarySnapshot) {
+        this.binarySnapshot = binarySnapshot;
+
+        if (!binarySnapshot) {
+            ConfigurationSnapshot.getFile(file).delete();
+        }
+    }
+
+    /**
+     * Gets whether a binary snapshot of this configuration is kept next to
+     * its file.
+     *
+     * @return true if a snapshot is kept
+     */
+    public boolean isBinarySnapshot() {
+        return binarySnapshot;
+    }
+
+    private Map<String, Object> readFile() throws IOException, ConfigurationException {
+        FileInputStream stream = null;
+        long modified = file.lastModified();
+        long length = file.length();
+
+        // Recorded even if the file can't be read, so a broken file is only
+        // reported once by reloadIfModified
+        fileModified = modified;
+        fileLength = length;
+
+        if (binarySnapshot) {
+            Map<String, Object> values = ConfigurationSnapshot.read(ConfigurationSnapshot.getFile(file), length, modified);
+
+            if (values != null) {
+                return values;
+            }
+        }
+
+        try {
+            stream = new FileInputStream(file);
+            Map<String, Object> values = read(yaml.load(new UnicodeReader(stream)));
+
+            if (binarySnapshot) {
+                ConfigurationSnapshot.write(ConfigurationSnapshot.getFile(file), values, length, modified);
+            }
+            return values;
         } finally {
             try {
                 if (stream != null) {
@@ -85,42 +249,315 @@ public class Configuration extends ConfigurationNode {
         }
     }
 
+    /**
+     * Changes the values of a map to those of another, recursing into maps
+     * found in both so they stay the same objects
+     */
+    @SuppressWarnings("unchecked")
+    private static void merge(Map<String, Object> current, Map<String, Object> values, String prefix, List<Change> changes) {
+        Iterator<Map.Entry<String, Object>> iterator = current.entrySet().iterator();
+
+        while (iterator.hasNext()) {
+            Map.Entry<String, Object> entry = iterator.next();
+
+            if (!values.containsKey(entry.getKey())) {
+                iterator.remove();
+                changes.add(new Change(prefix + entry.getKey(), entry.getValue(), null));
+            }
+        }
+
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            String key = entry.getKey();
+            Object oldValue = current.get(key);
+            Object newValue = entry.getValue();
+
+            if (oldValue instanceof Map && newValue instanceof Map) {
+                merge((Map<String, Object>) oldValue, (Map<String, Object>) newValue, prefix + key + ".", changes);
+            } else if (oldValue == null ? newValue != null : !oldValue.equals(newValue)) {
+                current.put(key, newValue);
+                changes.add(new Change(prefix + key, oldValue, newValue));
+            } else if (!current.containsKey(key)) {
+                current.put(key, newValue);
+            }
+        }
+    }
+
     /**
      * Saves the configuration to disk. All errors are clobbered.
      *
+     * The file is written to a temporary file first and then renamed over the
+     * old one, so a failed save never leaves a partly written configuration.
+     *
      * @return true if it was successful
      */
     public boolean save() {
-        FileOutputStream stream = null;
+        try {
+            write(snapshot());
+            return true;
+        } catch (IOException e) {}
+
+        return false;
+    }
+
+    /**
+     * Saves the configuration to disk on a background thread. The values are
+     * copied before this returns, so the configuration may be changed right
+     * away. Saves requested within the save delay of each other are combined
+     * into one write of the newest values.
+     *
+     * @return future which completes once the values are written, and throws
+     *     the cause of the failure if they couldn't be
+     */
+    public Future<Void> saveAsync() {
+        Snapshot snapshot = snapshot();
 
-        File parent = file.getParentFile();
+        synchronized (saveLock) {
+            if (pendingSave != null) {
+                pendingSave.snapshot = snapshot;
+                return pendingSave.future;
+            }
+
+            final PendingSave save = new PendingSave(snapshot);
+            save.future = new FutureTask<Void>(new Callable<Void>() {
+                public Void call() throws IOException {
+                    Snapshot latest;
+
+                    synchronized (saveLock) {
+                        if (pendingSave == save) {
+                            pendingSave = null;
+                        }
+                        latest = save.snapshot;
+                        save.snapshot = null;
+                    }
+
+                    try {
+                        write(latest);
+                    } finally {
+                        // Only kept so flush can wait for a write in progress
+                        synchronized (saveLock) {
+                            if (lastSave == save) {
+                                lastSave = null;
+                            }
+                        }
+                    }
+                    return null;
+                }
+            });
+
+            pendingSave = save;
+            lastSave = save;
+            saver.schedule(save.future, saveDelay, TimeUnit.MILLISECONDS);
+            return save.future;
+        }
+    }
+
+    /**
+     * Writes any save requested with {@link #saveAsync()} which hasn't been
+     * written yet, and waits for it to finish. Plugins should call this when
+     * they are disabled for configurations other than their main one.
+     *
+     * @return true if there was nothing to save or the save was successful
+     */
+    public boolean flush() {
+        PendingSave save;
+
+        synchronized (saveLock) {
+            save = (pendingSave != null) ? pendingSave : lastSave;
+        }
 
-        if (parent != null) {
-            parent.mkdirs();
+        if (save == null) {
+            return true;
         }
 
+        // Runs the save now if it hasn't started, otherwise does nothing
+        save.future.run();
+
         try {
-            stream = new FileOutputStream(file);
-            yaml.dump(root, new OutputStreamWriter(stream, "UTF-8"));
+            save.future.get();
             return true;
-        } catch (IOException e) {} finally {
+        } catch (ExecutionException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Gets the time asynchronous saves wait for further saves to combine with.
+     *
+     * @return delay in milliseconds
+     */
+    public long getSaveDelay() {
+        return saveDelay;
+    }
+
+    /**
+     * Sets the time asynchronous saves wait for further saves to combine with.
+     *
+     * @param saveDelay delay in milliseconds
+     */
+    public void setSaveDelay(long saveDelay) {
+        if (saveDelay < 0) {
+            throw new IllegalArgumentException("Save delay can't be negative");
+        }
+        this.saveDelay = saveDelay;
+    }
+
+    private Snapshot snapshot() {
+        synchronized (saveLock) {
+            return new Snapshot(++saveSequence, copy(root));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object copy(Object value) {
+        if (value instanceof Map) {
+            Map<Object, Object> map = new LinkedHashMap<Object, Object>();
+
+            for (Map.Entry<Object, Object> entry : ((Map<Object, Object>) value).entrySet()) {
+                map.put(entry.getKey(), copy(entry.getValue()));
+            }
+            return map;
+        } else if (value instanceof List) {
+            List<Object> list = new ArrayList<Object>();
+
+            for (Object o : (List<Object>) value) {
+                list.add(copy(o));
+            }
+            return list;
+        }
+
+        return value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void write(Snapshot snapshot) throws IOException {
+        synchronized (writeLock) {
+            // A newer snapshot was already written by another save
+            if (snapshot.sequence <= writtenSequence) {
+                return;
+            }
+
+            File parent = file.getAbsoluteFile().getParentFile();
+
+            if (parent != null) {
+                parent.mkdirs();
+            }
+
+            File temp = File.createTempFile(file.getName(), ".tmp", parent);
+            FileOutputStream stream = null;
+
             try {
-                if (stream != null) {
-                    stream.close();
+                stream = new FileOutputStream(temp);
+
+                Writer writer = new OutputStreamWriter(stream, "UTF-8");
+                new Yaml(new SafeConstructor(), new Representer(), options).dump(snapshot.data, writer);
+                writer.flush();
+                stream.getFD().sync();
+                stream.close();
+                stream = null;
+
+                if (!temp.renameTo(file)) {
+                    replace(temp);
                 }
-            } catch (IOException e) {}
+
+                writtenSequence = snapshot.sequence;
+                fileModified = file.lastModified();
+                fileLength = file.length();
+
+                if (binarySnapshot) {
+                    ConfigurationSnapshot.write(ConfigurationSnapshot.getFile(file), (Map<String, Object>) snapshot.data, fileLength, fileModified);
+                }
+            } finally {
+                try {
+                    if (stream != null) {
+                        stream.close();
+                    }
+                } catch (IOException e) {}
+
+                temp.delete();
+            }
         }
+    }
 
-        return false;
+    /**
+     * Replaces the file with another on systems which can't rename over an
+     * existing file, such as Windows. The old file is kept as a backup until
+     * the new one is in place, so there is always a complete file on disk.
+     */
+    private void replace(File temp) throws IOException {
+        File backup = new File(file.getPath() + ".bak");
+
+        backup.delete();
+        if (!file.renameTo(backup)) {
+            throw new IOException("Could not replace " + file + " with " + temp);
+        }
+
+        if (!temp.renameTo(file)) {
+            backup.renameTo(file);
+            throw new IOException("Could not replace " + file + " with " + temp);
+        }
+
+        backup.delete();
+    }
+
+    private static class Snapshot {
+        private final long sequence;
+        private final Object data;
+
+        public Snapshot(long sequence, Object data) {
+            this.sequence = sequence;
+            this.data = data;
+        }
+    }
+
+    private static class Change {
+        private final String path;
+        private final Object oldValue;
+        private final Object newValue;
+
+        public Change(String path, Object oldValue, Object newValue) {
+            this.path = path;
+            this.oldValue = oldValue;
+            this.newValue = newValue;
+        }
+    }
+
+    private static class ListenerRegistration {
+        private final String path;
+        private final ConfigurationListener listener;
+
+        public ListenerRegistration(String path, ConfigurationListener listener) {
+            this.path = path;
+            this.listener = listener;
+        }
+
+        /**
+         * Checks if a change to a path affects the registered path, either
+         * because it is the same path, below it or replaced one of its parents
+         */
+        public boolean matches(String changed) {
+            return path == null || path.equals(changed) || changed.startsWith(path + ".") || path.startsWith(changed + ".");
+        }
+    }
+
+    private static class PendingSave {
+        private Snapshot snapshot;
+        private FutureTask<Void> future;
+
+        public PendingSave(Snapshot snapshot) {
+            this.snapshot = snapshot;
+        }
     }
 
     @SuppressWarnings("unchecked")
-    private void read(Object input) throws ConfigurationException {
+    private Map<String, Object> read(Object input) throws ConfigurationException {
         try {
             if (null == input) {
-                root = new HashMap<String, Object>();
+                return new HashMap<String, Object>();
             } else {
-                root = (Map<String, Object>) input;
+                return (Map<String, Object>) input;
             }
         } catch (ClassCastException e) {
             throw new ConfigurationException("Root document must be an key-value structure");
@@ -0,0 +1,17 @@
+package org.bukkit.util.config;
+
+/**
+ * Listens for changes to a configuration made by reloading it.
+ */
+public interface ConfigurationListener {
+
+    /**
+     * Called when a value changed after the configuration was reloaded.
+     *
+     * @param path path of the changed value from the top of the
+     *     configuration (dot notation)
+     * @param oldValue value before the reload, or null if it didn't exist
+     * @param newValue value after the reload, or null if it was removed
+     */
+    public void onChange(String path, Object oldValue, Object newValue);
+}
@@ -4,6 +4,9 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Represents a configuration node.
@@ -11,10 +14,95 @@ import java.util.Map;
  * @author sk89q
  */
 public class ConfigurationNode {
+    private static final int MAX_CACHED_PATHS = 4096;
+    private static final ConcurrentMap<String, String[]> paths = new ConcurrentHashMap<String, String[]>();
+
     protected Map<String, Object> root;
+    /**
+     * Counts the changes made through this node and the nodes sharing its
+     * tree, so {@link ConfigKey}s know when their cached value is stale
+     */
+    final AtomicInteger revision;
+    /**
+     * Node at the top of the tree this node was taken from by path, and the
+     * path of this node from it, or this node and null if it has no path
+     */
+    private final ConfigurationNode base;
+    private final String path;
 
     protected ConfigurationNode(Map<String, Object> root) {
+        this(root, new AtomicInteger());
+    }
+
+    ConfigurationNode(Map<String, Object> root, AtomicInteger revision) {
         this.root = root;
+        this.revision = revision;
+        this.base = this;
+        this.path = null;
+    }
+
+    private ConfigurationNode(Map<String, Object> root, ConfigurationNode parent, String path) {
+        this.root = root;
+        this.revision = parent.revision;
+        this.base = parent.base;
+        this.path = parent.getFullPath(path);
+    }
+
+    /**
+     * Gets the path of a value below this node from the top of its tree
+     *
+     * @param relative path from this node (dot notation), or null for this node
+     * @return path from the top of the tree, or null for the top itself
+     */
+    String getFullPath(String relative) {
+        if (path == null) {
+            return relative;
+        }
+
+        return (relative == null) ? path : path + "." + relative;
+    }
+
+    /**
+     * Splits a path into its parts, giving the same parts as
+     * path.split("\\.") but without compiling a pattern each time
+     *
+     * The parts of frequently used paths are cached, the returned array must
+     * not be modified.
+     *
+     * @param path path to node (dot notation)
+     * @return parts of the path
+     */
+    private static String[] compilePath(String path) {
+        String[] parts = paths.get(path);
+
+        if (parts != null) {
+            return parts;
+        }
+
+        List<String> list = new ArrayList<String>();
+        int start = 0;
+        int dot;
+
+        while ((dot = path.indexOf('.', start)) != -1) {
+            list.add(path.substring(start, dot));
+            start = dot + 1;
+        }
+        list.add(path.substring(start));
+
+        // Trailing empty parts are dropped, as split does
+        int size = list.size();
+        while (size > 0 && list.get(size - 1).length() == 0) {
+            size--;
+        }
+
+        parts = list.subList(0, size).toArray(new String[size]);
+
+        // Paths built from player names and the like shouldn't fill the cache
+        if (paths.size() < MAX_CACHED_PATHS) {
+            paths.putIfAbsent(path, parts);
+        }
+
+        return parts;
     }
 
     /**
@@ -38,7 +126,7 @@ public class ConfigurationNode {
             return val;
         }
 
-        String[] parts = path.split("\\.");
+        String[] parts = compilePath(path);
         Map<String, Object> node = root;
 
         for (int i = 0; i < parts.length; i++) {
@@ -73,10 +161,11 @@ public class ConfigurationNode {
     public void setProperty(String path, Object value) {
         if (!path.contains(".")) {
             root.put(path, value);
+            revision.incrementAndGet();
             return;
         }
 
-        String[] parts = path.split("\\.");
+        String[] parts = compilePath(path);
         Map<String, Object> node = root;
 
         for (int i = 0; i < parts.length; i++) {
@@ -85,7 +174,7 @@ public class ConfigurationNode {
             // Found our target!
             if (i == parts.length - 1) {
                 node.put(parts[i], value);
-                return;
+                break;
             }
 
             if (o == null || !(o instanceof Map)) {
@@ -96,6 +185,9 @@ public class ConfigurationNode {
 
             node = (Map<String, Object>) o;
         }
+
+        // Counted after the change so a handle can't cache the old value as new
+        revision.incrementAndGet();
     }
 
     /**
@@ -388,7 +480,7 @@ public class ConfigurationNode {
 
         for (Object o : raw) {
             if (o instanceof Map) {
-                list.add(new ConfigurationNode((Map<String, Object>) o));
+                list.add(new ConfigurationNode((Map<String, Object>) o, revision));
             }
         }
 
@@ -408,7 +500,7 @@ public class ConfigurationNode {
         Object raw = getProperty(path);
 
         if (raw instanceof Map) {
-            return new ConfigurationNode((Map<String, Object>) raw);
+            return new ConfigurationNode((Map<String, Object>) raw, this, path);
         }
 
         return null;
@@ -432,7 +524,7 @@ public class ConfigurationNode {
 
             for (Map.Entry<String, Object> entry : ((Map<String, Object>) o).entrySet()) {
                 if (entry.getValue() instanceof Map) {
-                    nodes.put(entry.getKey(), new ConfigurationNode((Map<String, Object>) entry.getValue()));
+                    nodes.put(entry.getKey(), new ConfigurationNode((Map<String, Object>) entry.getValue(), this, path + "." + entry.getKey()));
                 }
             }
 
@@ -442,6 +534,92 @@ public class ConfigurationNode {
         }
     }
 
+    /**
+     * Gets a handle to an integer at a location. The handle caches the value
+     * returned by {@link #getInt(String, int)} until the configuration is
+     * changed through setProperty, removeProperty or load.
+     *
+     * @param path path to node (dot notation)
+     * @param def default value
+     * @return handle to the integer
+     */
+    public ConfigKey<Integer> getIntKey(String path, int def) {
+        return new ConfigKey<Integer>(base, getFullPath(path), ConfigKey.Type.INT, def);
+    }
+
+    /**
+     * Gets a handle to a double at a location. The handle caches the value
+     * returned by {@link #getDouble(String, double)} until the configuration
+     * is changed through setProperty, removeProperty or load.
+     *
+     * @param path path to node (dot notation)
+     * @param def default value
+     * @return handle to the double
+     */
+    public ConfigKey<Double> getDoubleKey(String path, double def) {
+        return new ConfigKey<Double>(base, getFullPath(path), ConfigKey.Type.DOUBLE, def);
+    }
+
+    /**
+     * Gets a handle to a boolean at a location. The handle caches the value
+     * returned by {@link #getBoolean(String, boolean)} until the configuration
+     * is changed through setProperty, removeProperty or load.
+     *
+     * @param path path to node (dot notation)
+     * @param def default value
+     * @return handle to the boolean
+     */
+    public ConfigKey<Boolean> getBooleanKey(String path, boolean def) {
+        return new ConfigKey<Boolean>(base, getFullPath(path), ConfigKey.Type.BOOLEAN, def);
+    }
+
+    /**
+     * Gets a handle to a string at a location. The handle caches the value
+     * returned by {@link #getString(String, String)} until the configuration
+     * is changed through setProperty, removeProperty or load.
+     *
+     * @param path path to node (dot notation)
+     * @param def default value
+     * @return handle to the string
+     */
+    public ConfigKey<String> getStringKey(String path, String def) {
+        return new ConfigKey<String>(base, getFullPath(path), ConfigKey.Type.STRING, def);
+    }
+
+    /**
+     * Registers a listener for changes to a path below this node, or anything
+     * below that path, made by {@link Configuration#reload()}. The listener is
+     * given the changed paths from the top of the configuration.
+     *
+     * @param path path from this node (dot notation), or null for this node
+     * @param listener listener to call
+     * @throws UnsupportedOperationException if this node isn't part of a
+     *     configuration, such as the nodes of a list
+     */
+    public void addChangeListener(String path, ConfigurationListener listener) {
+        getConfiguration().addListener(getFullPath(path), listener);
+    }
+
+    /**
+     * Unregisters a listener from every path of the configuration it was
+     * registered for.
+     *
+     * @param listener listener to remove
+     * @throws UnsupportedOperationException if this node isn't part of a
+     *     configuration, such as the nodes of a list
+     */
+    public void removeChangeListener(ConfigurationListener listener) {
+        getConfiguration().removeListener(listener);
+    }
+
+    private Configuration getConfiguration() {
+        if (!(base instanceof Configuration)) {
+            throw new UnsupportedOperationException("This node is not part of a configuration");
+        }
+
+        return (Configuration) base;
+    }
+
     /**
      * Casts a value to an integer. May return null.
      *
@@ -516,10 +694,11 @@ public class ConfigurationNode {
     public void removeProperty(String path) {
         if (!path.contains(".")) {
             root.remove(path);
+            revision.incrementAndGet();
             return;
         }
 
-        String[] parts = path.split("\\.");
+        String[] parts = compilePath(path);
         Map<String, Object> node = root;
 
         for (int i = 0; i < parts.length; i++) {
@@ -528,10 +707,12 @@ public class ConfigurationNode {
             // Found our target!
             if (i == parts.length - 1) {
                 node.remove(parts[i]);
-                return;
+                break;
             }
 
             node = (Map<String, Object>) o;
         }
+
+        revision.incrementAndGet();
     }
 }
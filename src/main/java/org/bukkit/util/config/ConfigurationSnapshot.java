@@ -0,0 +1,435 @@
+package org.bukkit.util.config;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Binary copy of a configuration, saved next to its YAML file so large
+ * configurations can be loaded without parsing YAML.
+ *
+ * Every value is written with a type tag, maps and lists are prefixed with
+ * their size in bytes. Large maps below the top level are only decoded when
+ * they are first used, so reading one section doesn't decode the whole file.
+ *
+ * A snapshot records the length and modification time of the YAML file it was
+ * made from, and is ignored once the YAML file changes.
+ */
+final class ConfigurationSnapshot {
+    private static final int FORMAT = 1;
+    private static final int HEADER_SIZE = 4 + 8 + 8 + 8;
+    private static final int LAZY_SIZE = 4096;
+
+    private ConfigurationSnapshot() {}
+
+    /**
+     * Gets the file the snapshot of a configuration file is saved to
+     *
+     * @param file YAML file of the configuration
+     * @return Snapshot file
+     */
+    public static File getFile(File file) {
+        return new File(file.getPath() + ".bin");
+    }
+
+    /**
+     * Reads the snapshot of a configuration file
+     *
+     * @param snapshotFile File the snapshot was saved to
+     * @param length Length of the YAML file
+     * @param lastModified Modification time of the YAML file
+     * @return Values of the configuration, or null if there is no valid
+     *     snapshot of the YAML file
+     */
+    @SuppressWarnings("unchecked")
+    public static Map<String, Object> read(File snapshotFile, long length, long lastModified) {
+        if (!snapshotFile.isFile() || snapshotFile.length() < HEADER_SIZE || snapshotFile.length() > Integer.MAX_VALUE) {
+            return null;
+        }
+
+        try {
+            byte[] data = new byte[(int) snapshotFile.length()];
+            FileInputStream in = new FileInputStream(snapshotFile);
+
+            try {
+                int read = 0;
+                while (read < data.length) {
+                    int count = in.read(data, read, data.length - read);
+                    if (count == -1) {
+                        return null;
+                    }
+                    read += count;
+                }
+            } finally {
+                in.close();
+            }
+
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            if (buffer.getInt() != FORMAT || buffer.getLong() != length || buffer.getLong() != lastModified) {
+                return null;
+            }
+
+            long checksum = buffer.getLong();
+            CRC32 crc = new CRC32();
+            crc.update(data, HEADER_SIZE, data.length - HEADER_SIZE);
+            if (crc.getValue() != checksum) {
+                return null;
+            }
+
+            Object root = new Decoder(buffer).readValue(false);
+            return (root instanceof Map) ? (Map<String, Object>) root : null;
+        } catch (IOException ex) {
+            return null;
+        } catch (RuntimeException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Saves a snapshot of a configuration, replacing the file only once it has
+     * been fully written. Any old snapshot is removed if the values can't be
+     * saved.
+     *
+     * @param snapshotFile File to save to
+     * @param values Values of the configuration
+     * @param length Length of the YAML file the values were saved to
+     * @param lastModified Modification time of the YAML file
+     * @return true if the snapshot was saved
+     */
+    public static boolean write(File snapshotFile, Map<String, Object> values, long length, long lastModified) {
+        File tmpFile = new File(snapshotFile.getPath() + ".tmp");
+
+        try {
+            Encoder encoder = new Encoder();
+            encoder.writeInt(FORMAT);
+            encoder.writeLong(length);
+            encoder.writeLong(lastModified);
+            encoder.writeLong(0);
+            encoder.writeValue(values);
+
+            CRC32 crc = new CRC32();
+            crc.update(encoder.data, HEADER_SIZE, encoder.size - HEADER_SIZE);
+            encoder.setLong(HEADER_SIZE - 8, crc.getValue());
+
+            FileOutputStream out = new FileOutputStream(tmpFile);
+            try {
+                out.write(encoder.data, 0, encoder.size);
+            } finally {
+                out.close();
+            }
+
+            snapshotFile.delete();
+            if (tmpFile.renameTo(snapshotFile)) {
+                return true;
+            }
+        } catch (IOException ex) {}
+
+        tmpFile.delete();
+        snapshotFile.delete();
+        return false;
+    }
+
+    private static class Encoder {
+        private byte[] data = new byte[8192];
+        private int size = 0;
+
+        private void ensure(int extra) {
+            if (size + extra > data.length) {
+                byte[] grown = new byte[Math.max(data.length * 2, size + extra)];
+                System.arraycopy(data, 0, grown, 0, size);
+                data = grown;
+            }
+        }
+
+        public void writeByte(int value) {
+            ensure(1);
+            data[size++] = (byte) value;
+        }
+
+        public void writeInt(int value) {
+            ensure(4);
+            setInt(size, value);
+            size += 4;
+        }
+
+        public void writeLong(long value) {
+            ensure(8);
+            setLong(size, value);
+            size += 8;
+        }
+
+        public void writeBytes(byte[] bytes) {
+            writeInt(bytes.length);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, data, size, bytes.length);
+            size += bytes.length;
+        }
+
+        public void writeString(String value) throws UnsupportedEncodingException {
+            writeBytes(value.getBytes("UTF-8"));
+        }
+
+        public void setInt(int position, int value) {
+            data[position] = (byte) (value >>> 24);
+            data[position + 1] = (byte) (value >>> 16);
+            data[position + 2] = (byte) (value >>> 8);
+            data[position + 3] = (byte) value;
+        }
+
+        public void setLong(int position, long value) {
+            setInt(position, (int) (value >>> 32));
+            setInt(position + 4, (int) value);
+        }
+
+        public void writeValue(Object value) throws IOException {
+            if (null == value) {
+                writeByte('N');
+            } else if (value instanceof String) {
+                writeByte('S');
+                writeString((String) value);
+            } else if (value instanceof Boolean) {
+                writeByte('Z');
+                writeByte(((Boolean) value) ? 1 : 0);
+            } else if (value instanceof Integer) {
+                writeByte('I');
+                writeInt((Integer) value);
+            } else if (value instanceof Long) {
+                writeByte('J');
+                writeLong((Long) value);
+            } else if (value instanceof Double) {
+                writeByte('D');
+                writeLong(Double.doubleToRawLongBits((Double) value));
+            } else if (value instanceof Float) {
+                writeByte('F');
+                writeInt(Float.floatToRawIntBits((Float) value));
+            } else if (value instanceof Short) {
+                writeByte('H');
+                writeInt((Short) value);
+            } else if (value instanceof Byte) {
+                writeByte('B');
+                writeByte((Byte) value);
+            } else if (value instanceof BigInteger) {
+                writeByte('G');
+                writeString(value.toString());
+            } else if (value instanceof Date) {
+                writeByte('T');
+                writeLong(((Date) value).getTime());
+            } else if (value instanceof byte[]) {
+                writeByte('Y');
+                writeBytes((byte[]) value);
+            } else if (value instanceof List) {
+                List<?> list = (List<?>) value;
+
+                writeByte('L');
+                writeInt(list.size());
+                for (Object element : list) {
+                    writeValue(element);
+                }
+            } else if (value instanceof Map) {
+                Map<?, ?> map = (Map<?, ?>) value;
+
+                writeByte('M');
+                writeInt(map.size());
+
+                // The length is filled in once the entries are written
+                int lengthPosition = size;
+                writeInt(0);
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    writeValue(entry.getKey());
+                    writeValue(entry.getValue());
+                }
+                setInt(lengthPosition, size - lengthPosition - 4);
+            } else {
+                throw new IOException("Can't save values of type " + value.getClass().getName());
+            }
+        }
+    }
+
+    private static class Decoder {
+        private final ByteBuffer buffer;
+
+        public Decoder(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        private byte[] readBytes() {
+            byte[] bytes = new byte[buffer.getInt()];
+            buffer.get(bytes);
+            return bytes;
+        }
+
+        private String readString() throws UnsupportedEncodingException {
+            int length = buffer.getInt();
+            String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, "UTF-8");
+
+            buffer.position(buffer.position() + length);
+            return value;
+        }
+
+        public Object readValue(boolean lazy) throws IOException {
+            byte type = buffer.get();
+
+            switch (type) {
+            case 'N':
+                return null;
+
+            case 'S':
+                return readString();
+
+            case 'Z':
+                return buffer.get() != 0;
+
+            case 'I':
+                return buffer.getInt();
+
+            case 'J':
+                return buffer.getLong();
+
+            case 'D':
+                return Double.longBitsToDouble(buffer.getLong());
+
+            case 'F':
+                return Float.intBitsToFloat(buffer.getInt());
+
+            case 'H':
+                return (short) buffer.getInt();
+
+            case 'B':
+                return buffer.get();
+
+            case 'G':
+                return new BigInteger(readString());
+
+            case 'T':
+                return new Date(buffer.getLong());
+
+            case 'Y':
+                return readBytes();
+
+            case 'L': {
+                int count = buffer.getInt();
+                List<Object> list = new ArrayList<Object>(Math.min(count, buffer.remaining()));
+
+                for (int i = 0; i < count; i++) {
+                    list.add(readValue(true));
+                }
+                return list;
+            }
+
+            case 'M': {
+                int count = buffer.getInt();
+                int length = buffer.getInt();
+
+                if (lazy && length >= LAZY_SIZE) {
+                    // Copied so the rest of the file can be freed before this map is used
+                    byte[] entries = new byte[length];
+                    buffer.get(entries);
+                    return new LazyMap(ByteBuffer.wrap(entries), count);
+                }
+
+                return readEntries(count);
+            }
+
+            default:
+                throw new IOException("Unknown value type " + type);
+            }
+        }
+
+        public Map<Object, Object> readEntries(int count) throws IOException {
+            Map<Object, Object> map = new LinkedHashMap<Object, Object>();
+
+            for (int i = 0; i < count; i++) {
+                map.put(readValue(true), readValue(true));
+            }
+            return map;
+        }
+    }
+
+    /**
+     * A map which is decoded from a snapshot the first time it is used. It may
+     * be first used from any thread, once decoded it is as thread-safe as the
+     * rest of the configuration.
+     */
+    private static class LazyMap extends AbstractMap<Object, Object> {
+        private ByteBuffer entries;
+        private final int count;
+        private volatile Map<Object, Object> map = null;
+
+        public LazyMap(ByteBuffer entries, int count) {
+            this.entries = entries;
+            this.count = count;
+        }
+
+        private Map<Object, Object> decode() {
+            Map<Object, Object> decoded = map;
+
+            if (decoded != null) {
+                return decoded;
+            }
+
+            synchronized (this) {
+                if (map == null) {
+                    try {
+                        map = new Decoder(entries).readEntries(count);
+                    } catch (IOException ex) {
+                        throw new IllegalStateException("Configuration snapshot is corrupt", ex);
+                    } catch (BufferUnderflowException ex) {
+                        throw new IllegalStateException("Configuration snapshot is corrupt", ex);
+                    }
+                    entries = null;
+                }
+                return map;
+            }
+        }
+
+        @Override
+        public Set<Map.Entry<Object, Object>> entrySet() {
+            return decode().entrySet();
+        }
+
+        @Override
+        public int size() {
+            Map<Object, Object> decoded = map;
+
+            return (decoded == null) ? count : decoded.size();
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return decode().containsKey(key);
+        }
+
+        @Override
+        public Object get(Object key) {
+            return decode().get(key);
+        }
+
+        @Override
+        public Object put(Object key, Object value) {
+            return decode().put(key, value);
+        }
+
+        @Override
+        public Object remove(Object key) {
+            return decode().remove(key);
+        }
+
+        @Override
+        public void clear() {
+            decode().clear();
+        }
+    }
+}
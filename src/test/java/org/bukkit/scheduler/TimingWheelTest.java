@@ -0,0 +1,186 @@
+package org.bukkit.scheduler;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.bukkit.plugin.Plugin;
+
+/**
+ * Checks a timing wheel against a plain list of tasks and deadlines through
+ * random schedules, cancellations and ticks
+ */
+public class TimingWheelTest extends TestCase {
+    private static final int OWNERS = 4;
+    private static final int STEPS = 200000;
+
+    private final List<Plugin> owners = new ArrayList<Plugin>();
+
+    @Override
+    protected void setUp() {
+        for (int i = 0; i < OWNERS; i++) {
+            owners.add(createPlugin());
+        }
+    }
+
+    public void testFromZero() {
+        check(new Random(1), 0);
+    }
+
+    public void testAcrossWheelBoundaries() {
+        // Starts just before every wheel above the first wraps around
+        check(new Random(2), (1L << 36) - 100);
+    }
+
+    public void testAcrossSign() {
+        check(new Random(3), -1000);
+    }
+
+    public void testDelayPastLastTick() {
+        TimingWheel<Integer> wheel = new TimingWheel<Integer>(Long.MAX_VALUE - 10);
+        TimingWheel.Entry<Integer> entry = wheel.schedule(owners.get(0), 1, Long.MAX_VALUE);
+
+        assertEquals(Long.MAX_VALUE, entry.getDeadline());
+        for (int i = 0; i < 5; i++) {
+            assertTrue(wheel.advance().isEmpty());
+        }
+        assertTrue(entry.isPending());
+        assertTrue(wheel.cancel(entry));
+        assertEquals(0, wheel.size());
+    }
+
+    public void testMinimumDelay() {
+        TimingWheel<Integer> wheel = new TimingWheel<Integer>();
+
+        wheel.schedule(owners.get(0), 1, 0);
+        wheel.schedule(owners.get(0), 2, -5);
+        assertEquals(2, wheel.advance().size());
+    }
+
+    private void check(Random random, long start) {
+        TimingWheel<Integer> wheel = new TimingWheel<Integer>(start);
+        List<ModelTask> model = new ArrayList<ModelTask>();
+        int nextId = 0;
+
+        for (int step = 0; step < STEPS; step++) {
+            int action = random.nextInt(100);
+
+            if (action < 40) {
+                Plugin owner = owners.get(random.nextInt(OWNERS));
+                long delay = randomDelay(random);
+                int id = nextId++;
+                TimingWheel.Entry<Integer> entry = wheel.schedule(owner, id, delay);
+
+                assertEquals(wheel.getCurrentTick() + Math.max(1, delay), entry.getDeadline());
+                model.add(new ModelTask(owner, id, entry));
+            } else if (action < 50) {
+                if (!model.isEmpty()) {
+                    ModelTask task = model.remove(random.nextInt(model.size()));
+
+                    assertTrue(wheel.cancel(task.entry));
+                    assertFalse(wheel.cancel(task.entry));
+                    assertFalse(task.entry.isPending());
+                }
+            } else if (action < 51) {
+                Plugin owner = owners.get(random.nextInt(OWNERS));
+                Set<Integer> expected = new HashSet<Integer>();
+
+                for (int i = model.size() - 1; i >= 0; i--) {
+                    if (model.get(i).owner == owner) {
+                        expected.add(model.remove(i).id);
+                    }
+                }
+
+                assertEquals(expected, new HashSet<Integer>(wheel.cancelAll(owner)));
+                assertTrue(wheel.getTasks(owner).isEmpty());
+            } else if (action < 53) {
+                Plugin owner = owners.get(random.nextInt(OWNERS));
+                Set<Integer> expected = new HashSet<Integer>();
+
+                for (ModelTask task : model) {
+                    if (task.owner == owner) {
+                        expected.add(task.id);
+                    }
+                }
+
+                List<Integer> tasks = wheel.getTasks(owner);
+                assertEquals(expected.size(), tasks.size());
+                assertEquals(expected, new HashSet<Integer>(tasks));
+            } else {
+                List<Integer> due = new ArrayList<Integer>(wheel.advance());
+                List<Integer> expected = new ArrayList<Integer>();
+
+                for (int i = model.size() - 1; i >= 0; i--) {
+                    ModelTask task = model.get(i);
+
+                    assertTrue(task.entry.getDeadline() >= wheel.getCurrentTick());
+                    if (task.entry.getDeadline() == wheel.getCurrentTick()) {
+                        expected.add(task.id);
+                        model.remove(i);
+                        assertFalse(task.entry.isPending());
+                    } else {
+                        assertTrue(task.entry.isPending());
+                    }
+                }
+
+                Collections.sort(due);
+                Collections.sort(expected);
+                assertEquals("tick " + wheel.getCurrentTick(), expected, due);
+            }
+
+            assertEquals(model.size(), wheel.size());
+        }
+    }
+
+    /**
+     * Mostly short delays, with some reaching into every wheel
+     */
+    private static long randomDelay(Random random) {
+        switch (random.nextInt(4)) {
+        case 0:
+            return random.nextInt(3) - 1;
+
+        case 1:
+            return random.nextInt(64);
+
+        case 2:
+            return random.nextInt(64 * 64 * 2);
+
+        default:
+            return 1L << random.nextInt(40);
+        }
+    }
+
+    private static Plugin createPlugin() {
+        return (Plugin) Proxy.newProxyInstance(Plugin.class.getClassLoader(), new Class<?>[] { Plugin.class }, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("equals")) {
+                    return proxy == args[0];
+                } else if (method.getName().equals("hashCode")) {
+                    return System.identityHashCode(proxy);
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private static class ModelTask {
+        private final Plugin owner;
+        private final int id;
+        private final TimingWheel.Entry<Integer> entry;
+
+        public ModelTask(Plugin owner, int id, TimingWheel.Entry<Integer> entry) {
+            this.owner = owner;
+            this.id = id;
+            this.entry = entry;
+        }
+    }
+}